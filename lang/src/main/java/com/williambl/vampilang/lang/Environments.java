@@ -0,0 +1,108 @@
+package com.williambl.vampilang.lang;
+
+import com.google.common.collect.Sets;
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.MapCodec;
+import com.mojang.serialization.codecs.KeyDispatchCodec;
+import com.williambl.vampilang.codec.*;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.type.*;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// lookups shared by VEnvironmentImpl and FrozenVEnvironment. they only go through the environment interface, so each
+// environment decides for itself what to cache
+final class Environments {
+    private Environments() {
+    }
+
+    static Set<VType> allTypesMatching(VEnvironment env, VType type) {
+        Set<VType> set = new HashSet<>();
+        if (type instanceof VTopTemplateType) {
+            set.addAll(env.allTypes().values());
+        } else if (type instanceof VFixedTemplateType template) {
+            set.addAll(template.bounds.stream().map(t -> allTypesMatching(env, t)).flatMap(Set::stream).toList());
+        } else if (type instanceof VDynamicTemplateType template) {
+            set.addAll(template.bounds(env)
+                    .filter(b -> !(env.contains(b, type))) // stop infinite loops
+                    .map(t -> allTypesMatching(env, t))
+                    .flatMap(Set::stream)
+                    .toList());
+        } else if (type instanceof VParameterisedType paramed) {
+            List<Set<VType>> typesMatchingEachParam = new ArrayList<>();
+            for (int i = 0; i < paramed.parameters.size(); i++) {
+                typesMatchingEachParam.add(allTypesMatching(env, paramed.parameters.get(i)));
+            }
+            Sets.cartesianProduct(typesMatchingEachParam).forEach(assignment -> set.add(env.intern(paramed.with(assignment))));
+        } else {
+            set.add(type);
+        }
+
+        return set;
+    }
+
+    static Map<VType, Codec<?>> codecsMatching(VEnvironment env, VType type) {
+        return allTypesMatching(env, type).stream().map(t -> Optional.ofNullable(env.rawCodecForType(t)).map(v -> Map.entry(t, v))).filter(Optional::isPresent).map(Optional::get).collect(Collectors.toMap(
+                Map.Entry::getKey,
+                Map.Entry::getValue));
+    }
+
+    static Codec<VExpression> expressionCodec(VEnvironment env, VType type, EvaluationContext.Spec spec) {
+        return env.expressionMultiCodecForType(type, spec).comapFlatMap(
+                        exprs -> exprs.stream()
+                                .map(expr -> expr.resolveTypes(env, spec))
+                                .map(DataResult::result)
+                                .filter(Optional::isPresent)
+                                .map(Optional::get)
+                                .filter(expr -> env.contains(type, expr.type()))
+                                .map(DataResult::success)
+                                .findFirst()
+                                .orElse(DataResult.error(() -> "Unmatched type")),
+                        List::of);
+    }
+
+    static Codec<List<VExpression>> expressionMultiCodec(VEnvironment env, Map<String, VFunctionDefinition> functions, VType type, EvaluationContext.Spec spec) {
+        return new VExpressionCodec(
+                ValueDecoder.createCodec(env, spec, type),
+                new KeyDispatchCodec<VFunctionDefinition, List<VExpression.FunctionApplication>>(
+                        "function",
+                        Codec.STRING.comapFlatMap(
+                                name -> Optional.ofNullable(functions.get(name)).map(DataResult::success).orElse(DataResult.error(() -> "No such function with name "+name)),
+                                VFunctionDefinition::name),
+                        exprs -> exprs.stream().map(expr -> DataResult.success(expr.function())).findFirst().orElse(DataResult.error(() -> "No entry in list!")),
+                        func -> DataResult.success(MapCodec.assumeMapUnsafe(FunctionApplicationDecoder.createCodec(func, env, spec)))
+                ).codec().comapFlatMap(fs -> Optional.of(fs.stream()
+                                                .map(f -> f.resolveTypes(env, spec)
+                                                        .flatMap(fr -> env.contains(type, ((VExpression.FunctionApplication)fr).resolvedSignature().outputType())
+                                                                ? DataResult.success((VExpression.FunctionApplication) fr)
+                                                                : DataResult.error(() -> "Unmatched type")))
+                                                .map(DataResult::result)
+                                                .filter(Optional::isPresent)
+                                                .map(Optional::get)
+                                                .toList())
+                                        .filter(l -> !l.isEmpty())
+                                        .map(DataResult::success)
+                                        .orElse(DataResult.error(() -> "Unmatched type")),
+                                Function.identity()),
+                VariableRefCodec.CODEC,
+                ObjectConstructionDecoder.createCodec(env, spec).comapFlatMap(os ->
+                                Optional.of(os.stream()
+                                                .map(o -> o.resolveTypes(env, spec)
+                                                        .flatMap(or -> env.contains(type, or.type())
+                                                                ? DataResult.success((VExpression.ObjectConstruction) or)
+                                                                : DataResult.error(() -> "Unmatched type")))
+                                                .map(DataResult::result)
+                                                .filter(Optional::isPresent)
+                                                .map(Optional::get)
+                                                .toList())
+                                        .filter(l -> !l.isEmpty())
+                                        .map(DataResult::success)
+                                        .orElse(DataResult.error(() -> "Unmatched type!")),
+                        Function.identity()),
+                ListConstructionDecoder.createCodec(env, spec, type),
+                LambdaDecoder.createCodec(env, spec, type));
+    }
+}
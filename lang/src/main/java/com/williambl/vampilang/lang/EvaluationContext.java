@@ -5,6 +5,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Unmodifiable;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -25,13 +26,17 @@ public class EvaluationContext {
 
     public VValue getVariable(String name, VType type) {
         var variable = this.variables.get(name);
-        if (variable == null || !type.contains(variable.type(), this.env)) {
+        if (variable == null || !this.env.contains(type, variable.type())) {
             throw new NoSuchElementException("No such variable of name %s and type %s".formatted(name, type));
         }
 
         return variable;
     }
 
+    public VValue getVariable(int slot, String name, VType type) {
+        return this.getVariable(name, type);
+    }
+
     public EvaluationContext with(String name, VValue variable) {
         var newVars = new HashMap<>(this.variables);
         newVars.put(name, variable);
@@ -41,8 +46,7 @@ public class EvaluationContext {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || this.getClass() != o.getClass()) return false;
-        EvaluationContext that = (EvaluationContext) o;
+        if (!(o instanceof EvaluationContext that)) return false;
         return Objects.equals(this.variables, that.variables);
     }
 
@@ -61,9 +65,17 @@ public class EvaluationContext {
 
     public static class Spec {
         private final @Unmodifiable Map<String, VType> variableTypes;
+        private final String[] slotNames;
+        private final VType[] slotTypes;
 
         public Spec(@Unmodifiable Map<String, VType> variableTypes) {
             this.variableTypes = variableTypes;
+            this.slotNames = variableTypes.keySet().toArray(new String[0]);
+            Arrays.sort(this.slotNames);
+            this.slotTypes = new VType[this.slotNames.length];
+            for (int i = 0; i < this.slotNames.length; i++) {
+                this.slotTypes[i] = variableTypes.get(this.slotNames[i]);
+            }
         }
 
         public Spec() {
@@ -83,6 +95,23 @@ public class EvaluationContext {
             return this.variableTypes.get(variableName);
         }
 
+        public int slotOf(String variableName) {
+            int slot = Arrays.binarySearch(this.slotNames, variableName);
+            return slot < 0 ? -1 : slot;
+        }
+
+        public int size() {
+            return this.slotNames.length;
+        }
+
+        public String nameOfSlot(int slot) {
+            return this.slotNames[slot];
+        }
+
+        public VType typeOfSlot(int slot) {
+            return this.slotTypes[slot];
+        }
+
         public Spec merge(Spec other) {
             var types = new HashMap<>(this.variableTypes);
             types.putAll(other.variableTypes);
@@ -117,14 +146,19 @@ public class EvaluationContext {
         }
 
         public EvaluationContext build(VEnvironment env) {
-            for (var variable : this.spec.variableTypes.entrySet()) {
-                var value = this.variables.get(variable.getKey());
-                if (value == null || !variable.getValue().contains(value.type(), env)) {
-                    throw new IllegalStateException("Evaluation Context missing variable %s of type %s".formatted(variable.getKey(), variable.getValue()));
+            var slots = new VValue[this.spec.size()];
+            for (int i = 0; i < slots.length; i++) {
+                var name = this.spec.nameOfSlot(i);
+                var type = this.spec.typeOfSlot(i);
+                var value = this.variables.get(name);
+                if (value == null || !env.contains(type, value.type())) {
+                    throw new IllegalStateException("Evaluation Context missing variable %s of type %s".formatted(name, type));
                 }
+
+                slots[i] = value;
             }
 
-            return new EvaluationContext(Map.copyOf(this.variables), env);
+            return new SlottedEvaluationContext(Map.copyOf(this.variables), env, this.spec, slots);
         }
     }
 }
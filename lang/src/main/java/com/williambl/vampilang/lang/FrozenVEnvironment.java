@@ -0,0 +1,217 @@
+package com.williambl.vampilang.lang;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mojang.serialization.Codec;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.type.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// an immutable snapshot of an environment, which can no longer be registered into. the types, functions and codecs are
+// copied into immutable maps, and the list type, the codecs of the registered types, the type lattice and a table of
+// which registered types contain which are all computed up front. containment between registered types is a lookup in
+// that table, and containment involving any other type is cached by type pair, which needs no version as nothing here
+// can change. registered types intern to themselves, and other types to the snapshot's own interner.
+// what is still built after freezing depends on what is asked for: codecs for parameterisations that were never
+// registered, codecs for expressions under a spec, the lattice's supertypes of unregistered types and the type names.
+// these are kept in concurrent maps, whose reads never take a lock
+public final class FrozenVEnvironment implements VEnvironment {
+    private final Map<String, VType> types;
+    private final Map<VType, VType> registered;
+    private final Map<String, VFunctionDefinition> functions;
+    private final Map<VType, Codec<?>> codecs;
+    private final Map<VType, Function<VParameterisedType, Codec<?>>> parameterisedTypeCodecs;
+    private final @Nullable VParameterisedType listType;
+    private final @Nullable Map<VType, Set<VType>> contents;
+    private final TypeLattice typeLattice;
+    private final Map<VType, Codec<?>> builtCodecs = new ConcurrentHashMap<>();
+    private final Map<VEnvironmentImpl.TypeAndSpecCacheKey, Codec<VExpression>> expressionCodecs = new ConcurrentHashMap<>();
+    private final Map<VEnvironmentImpl.TypeAndSpecCacheKey, Codec<List<VExpression>>> expressionMultiCodecs = new ConcurrentHashMap<>();
+    private final TypeInterner typeInterner = new TypeInterner();
+    private final Cache<ContainsCacheKey, Boolean> containsCache = CacheBuilder.newBuilder().maximumSize(10_000).recordStats().build();
+    private volatile @Nullable Map<VType, String> typeNames;
+
+    FrozenVEnvironment(VEnvironmentImpl source) {
+        this.types = Map.copyOf(source.types);
+        this.registered = this.types.values().stream().distinct().collect(Collectors.toUnmodifiableMap(Function.identity(), Function.identity()));
+        this.functions = Map.copyOf(source.functions);
+        this.parameterisedTypeCodecs = Map.copyOf(source.parameterisedTypeCodecs);
+        var codecs = new HashMap<>(source.codecs);
+        for (var type : this.registered.keySet()) {
+            if (!codecs.containsKey(type) && type instanceof VParameterisedType paramed && this.parameterisedTypeCodecs.containsKey(paramed.bareType)) {
+                codecs.put(type, this.parameterisedTypeCodecs.get(paramed.bareType).apply(paramed));
+            }
+        }
+
+        this.codecs = Map.copyOf(codecs);
+        var list = this.types.get("list");
+        this.listType = list == null ? null : VType.createParameterised(list, VType.createTopTemplate());
+
+        // the table is still null here, so these containment checks are worked out directly
+        var contents = new HashMap<VType, Set<VType>>();
+        for (var type : this.registered.keySet()) {
+            var contained = new HashSet<VType>();
+            for (var other : this.registered.keySet()) {
+                if (type.contains(other, this)) {
+                    contained.add(other);
+                }
+            }
+
+            contents.put(type, Set.copyOf(contained));
+        }
+
+        this.contents = Map.copyOf(contents);
+        this.typeLattice = new TypeLattice(this).precompute();
+    }
+
+    @Override
+    public Codec<?> rawCodecForType(VType type) {
+        var codec = this.codecs.get(type);
+        if (codec == null && type instanceof VParameterisedType paramed && this.parameterisedTypeCodecs.containsKey(paramed.bareType)) {
+            codec = this.builtCodecs.get(paramed);
+            if (codec == null) {
+                codec = this.parameterisedTypeCodecs.get(paramed.bareType).apply(paramed);
+                var existing = this.builtCodecs.putIfAbsent(paramed, codec);
+                return existing == null ? codec : existing;
+            }
+        }
+
+        return codec;
+    }
+
+    @Override
+    public Map<VType, Codec<?>> codecsMatching(VType type) {
+        return Environments.codecsMatching(this, type);
+    }
+
+    public Set<VType> allTypesMatching(VType type) {
+        return Environments.allTypesMatching(this, type);
+    }
+
+    @Override
+    public Codec<VExpression> expressionCodecForType(VType type, EvaluationContext.Spec spec) {
+        // not computeIfAbsent, as building a codec can build others and concurrent maps don't allow recursive updates
+        var key = new VEnvironmentImpl.TypeAndSpecCacheKey(type, spec);
+        var cached = this.expressionCodecs.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var codec = Environments.expressionCodec(this, type, spec);
+        var existing = this.expressionCodecs.putIfAbsent(key, codec);
+        return existing == null ? codec : existing;
+    }
+
+    @Override
+    public Codec<List<VExpression>> expressionMultiCodecForType(VType type, EvaluationContext.Spec spec) {
+        var key = new VEnvironmentImpl.TypeAndSpecCacheKey(type, spec);
+        var cached = this.expressionMultiCodecs.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var codec = Environments.expressionMultiCodec(this, this.functions, type, spec);
+        var existing = this.expressionMultiCodecs.putIfAbsent(key, codec);
+        return existing == null ? codec : existing;
+    }
+
+    @Override
+    public void registerCodecForType(VType type, Codec<?> codec) {
+        throw new UnsupportedOperationException("Cannot register a codec in a frozen environment!");
+    }
+
+    @Override
+    public void registerCodecForParameterisedType(SimpleVType bareType, Function<VParameterisedType, Codec<?>> codecForType) {
+        throw new UnsupportedOperationException("Cannot register a codec in a frozen environment!");
+    }
+
+    @Override
+    public void registerType(String name, VType type) {
+        throw new UnsupportedOperationException("Cannot register a type in a frozen environment!");
+    }
+
+    @Override
+    public VType getType(String typeName) {
+        return this.types.get(typeName);
+    }
+
+    @Override
+    public VParameterisedType listType() {
+        return this.listType;
+    }
+
+    @Override
+    public Map<String, VType> allTypes() {
+        return this.types;
+    }
+
+    @Override
+    public void registerFunction(VFunctionDefinition function) {
+        throw new UnsupportedOperationException("Cannot register a function in a frozen environment!");
+    }
+
+    @Override
+    public TypeNamer createTypeNamer() {
+        var typeNames = this.typeNames;
+        if (typeNames == null) {
+            // like the source environment, this fails if a type is registered under more than one name
+            typeNames = this.types.entrySet().stream().collect(Collectors.toUnmodifiableMap(Map.Entry::getValue, Map.Entry::getKey));
+            this.typeNames = typeNames;
+        }
+
+        return new TypeNamer(typeNames);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends VType> T intern(T type) {
+        var registered = this.registered.get(type);
+        return registered == null ? this.typeInterner.intern(type) : (T) registered;
+    }
+
+    @Override
+    public boolean contains(VType type, VType other) {
+        var contents = this.contents;
+        if (contents == null) {
+            return type.contains(other, this);
+        }
+
+        var contained = contents.get(type);
+        if (contained != null && this.registered.containsKey(other)) {
+            return contained.contains(other);
+        }
+
+        // not a loader, as checking containment can check it for other types too
+        var key = new ContainsCacheKey(type, other);
+        var cached = this.containsCache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean result = type.contains(other, this);
+        this.containsCache.put(key, result);
+        return result;
+    }
+
+    public VEnvironmentImpl.ContainsCacheStatistics containsCacheStatistics() {
+        var stats = this.containsCache.stats();
+        return new VEnvironmentImpl.ContainsCacheStatistics(stats.hitCount(), stats.missCount());
+    }
+
+    @Override
+    public TypeLattice typeLattice() {
+        return this.typeLattice;
+    }
+
+    public FrozenVEnvironment freeze() {
+        return this;
+    }
+
+    private record ContainsCacheKey(VType type, VType other) {
+    }
+}
@@ -0,0 +1,33 @@
+package com.williambl.vampilang.lang;
+
+import com.williambl.vampilang.lang.type.VType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Unmodifiable;
+
+import java.util.Map;
+
+public class SlottedEvaluationContext extends EvaluationContext {
+    private final EvaluationContext.Spec spec;
+    private final VValue[] slots;
+
+    SlottedEvaluationContext(@Unmodifiable Map<String, VValue> variables, @NotNull VEnvironment env, EvaluationContext.Spec spec, VValue[] slots) {
+        super(variables, env);
+        this.spec = spec;
+        this.slots = slots;
+    }
+
+    // slots were type-checked against the spec when this context was built, so a variable resolved against the same
+    // spec (same name and type instances) can be read straight out of the array
+    @Override
+    public VValue getVariable(int slot, String name, VType type) {
+        if (slot >= 0 && slot < this.slots.length && this.spec.nameOfSlot(slot) == name && this.spec.typeOfSlot(slot) == type) {
+            return this.slots[slot];
+        }
+
+        return this.getVariable(name, type);
+    }
+
+    public EvaluationContext.Spec spec() {
+        return this.spec;
+    }
+}
@@ -0,0 +1,233 @@
+package com.williambl.vampilang.lang;
+
+import com.mojang.serialization.DataResult;
+import com.williambl.vampilang.lang.type.ConstructableVType;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+// resolves types with an explicit stack of frames rather than the call stack, so the depth of an expression is limited
+// only by the heap. each frame resolves its children in turn, then builds its own node from them. if any child fails,
+// the node fails with all of its children's errors
+final class TypeResolver {
+    private TypeResolver() {
+    }
+
+    static DataResult<VExpression> resolve(VExpression expr, VEnvironment env, EvaluationContext.Spec spec) {
+        var result = resolveLeaf(expr, env, spec);
+        if (result != null) {
+            return result;
+        }
+
+        var stack = new ArrayDeque<Frame>();
+        stack.push(frameFor(expr, spec));
+        while (true) {
+            var frame = stack.peek();
+            if (result != null) {
+                frame.accept(result);
+                result = null;
+            }
+
+            if (frame.index < frame.children.size()) {
+                var child = frame.children.get(frame.index);
+                var childSpec = frame.childSpec();
+                result = resolveLeaf(child, env, childSpec);
+                if (result == null) {
+                    stack.push(frameFor(child, childSpec));
+                }
+            } else {
+                stack.pop();
+                result = frame.errors.isEmpty() ? frame.build(env) : DataResult.error(() -> String.join("\n and ", frame.errors));
+                if (stack.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+    }
+
+    // the result for an expression that needs no frame, or null if it does
+    private static @Nullable DataResult<VExpression> resolveLeaf(VExpression expr, VEnvironment env, EvaluationContext.Spec spec) {
+        if (expr instanceof VExpression.Value) {
+            return DataResult.success(expr);
+        } else if (expr instanceof VExpression.VariableRef variableRef) {
+            int slot = spec.slotOf(variableRef.name());
+            if (slot < 0) {
+                return DataResult.error(() -> "No variable with name " + variableRef.name());
+            }
+
+            return DataResult.success(new VExpression.VariableRef(spec.nameOfSlot(slot), spec.typeOfSlot(slot), slot));
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            var listType = env.listType();
+            if (listType == null) {
+                return DataResult.error(() -> "No list type in environment!");
+            }
+
+            if (list.entries().isEmpty()) {
+                var resolvedType = list.resolvedType();
+                return resolvedType != null
+                        ? (resolvedType.bareType.equals(listType.bareType)
+                                ? DataResult.success(list)
+                                : DataResult.error(() -> "List has non-list resolved type! (type: %s. list<> type: %s)".formatted(resolvedType, listType)))
+                        : DataResult.error(() -> "Empty list has no set type!"); //todo should this just return plain list type?
+            }
+        }
+
+        return null;
+    }
+
+    private static Frame frameFor(VExpression expr, EvaluationContext.Spec spec) {
+        if (expr instanceof VExpression.FunctionApplication app) {
+            return new ApplicationFrame(app, spec);
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            return new ObjectFrame(object, spec);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            return new ListFrame(list, spec);
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            return new LambdaFrame(lambda, spec);
+        }
+
+        throw new IllegalArgumentException("Unknown expression kind: " + expr.getClass());
+    }
+
+    private abstract static class Frame {
+        final List<VExpression> children;
+        final EvaluationContext.Spec spec;
+        final List<VExpression> resolved = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        int index;
+
+        Frame(List<VExpression> children, EvaluationContext.Spec spec) {
+            this.children = children;
+            this.spec = spec;
+        }
+
+        EvaluationContext.Spec childSpec() {
+            return this.spec;
+        }
+
+        void accept(DataResult<VExpression> child) {
+            this.index++;
+            if (child.result().isPresent()) {
+                this.resolved.add(child.result().get());
+            } else {
+                this.errors.add(child.error().map(DataResult.Error::message).orElse("?"));
+            }
+        }
+
+        // the resolved node, once every child has resolved
+        abstract DataResult<VExpression> build(VEnvironment env);
+    }
+
+    private static final class ApplicationFrame extends Frame {
+        private final VExpression.FunctionApplication app;
+        private final List<String> names;
+
+        private ApplicationFrame(VExpression.FunctionApplication app, EvaluationContext.Spec spec) {
+            this(app, List.copyOf(app.inputs().entrySet()), spec);
+        }
+
+        private ApplicationFrame(VExpression.FunctionApplication app, List<Map.Entry<String, VExpression>> inputs, EvaluationContext.Spec spec) {
+            super(inputs.stream().map(Map.Entry::getValue).toList(), spec);
+            this.app = app;
+            this.names = inputs.stream().map(Map.Entry::getKey).toList();
+        }
+
+        @Override
+        DataResult<VExpression> build(VEnvironment env) {
+            var resolvedInputs = new HashMap<String, VExpression>();
+            for (int i = 0; i < this.names.size(); i++) {
+                resolvedInputs.put(this.names.get(i), this.resolved.get(i));
+            }
+
+            var resolvedFunctionSignature = this.app.function().signature()
+                    .uniquise()
+                    .resolveTypes(env, resolvedInputs.entrySet()
+                            .stream()
+                            .collect(Collectors.toMap(Map.Entry::getKey, kv -> kv.getValue().type())));
+            return resolvedFunctionSignature.map(sig -> new VExpression.FunctionApplication(this.app.function(), sig, resolvedInputs));
+        }
+    }
+
+    private static final class ObjectFrame extends Frame {
+        private final VExpression.ObjectConstruction object;
+        private final List<String> names;
+
+        private ObjectFrame(VExpression.ObjectConstruction object, EvaluationContext.Spec spec) {
+            this(object, List.copyOf(object.properties().entrySet()), spec);
+        }
+
+        private ObjectFrame(VExpression.ObjectConstruction object, List<Map.Entry<String, VExpression>> properties, EvaluationContext.Spec spec) {
+            super(properties.stream().map(Map.Entry::getValue).toList(), spec);
+            this.object = object;
+            this.names = properties.stream().map(Map.Entry::getKey).toList();
+        }
+
+        @Override
+        DataResult<VExpression> build(VEnvironment env) {
+            var resolvedProperties = new HashMap<String, VExpression>();
+            for (int i = 0; i < this.names.size(); i++) {
+                resolvedProperties.put(this.names.get(i), this.resolved.get(i));
+            }
+
+            var typeName = this.object.typeName();
+            var resultType = env.getType(typeName);
+            if (!(resultType instanceof ConstructableVType<?> constructableVType)) {
+                return DataResult.error(() -> "Type %s must be constructable to be used in an object literal expression".formatted(typeName));
+            }
+            var expectedPropertyTypes = constructableVType.propertyTypes;
+            for (var key : expectedPropertyTypes.keySet()) {
+                var expected = expectedPropertyTypes.get(key);
+                var actual = resolvedProperties.get(key);
+                if (actual == null || !env.contains(expected, actual.type())) {
+                    return DataResult.error(() -> "Argument %s should be of type %s!".formatted(key, expected));
+                }
+            }
+            return DataResult.success(new VExpression.ObjectConstruction(typeName, resolvedProperties, constructableVType));
+        }
+    }
+
+    private static final class ListFrame extends Frame {
+        private ListFrame(VExpression.ListConstruction list, EvaluationContext.Spec spec) {
+            super(list.entries(), spec);
+        }
+
+        @Override
+        DataResult<VExpression> build(VEnvironment env) {
+            var listType = Objects.requireNonNull(env.listType());
+            var resolvedEntries = List.copyOf(this.resolved);
+            var join = env.typeLattice().join();
+            for (var entry : resolvedEntries) {
+                if (!join.add(entry.type())) {
+                    break;
+                }
+            }
+            var mostSpecificCommonSupertype = join.result();
+            if (mostSpecificCommonSupertype == null) {
+                String err = "No common supertype found for types [%s] in list!".formatted(resolvedEntries.stream().map(VExpression::type).map(Object::toString).collect(Collectors.joining(", ")));
+                return DataResult.error(() -> err);
+            }
+
+            return DataResult.success(new VExpression.ListConstruction(env.intern(listType.with(0, mostSpecificCommonSupertype)), resolvedEntries));
+        }
+    }
+
+    private static final class LambdaFrame extends Frame {
+        private final VExpression.Lambda lambda;
+
+        private LambdaFrame(VExpression.Lambda lambda, EvaluationContext.Spec spec) {
+            super(List.of(lambda.expr()), spec);
+            this.lambda = lambda;
+        }
+
+        @Override
+        EvaluationContext.Spec childSpec() {
+            return this.spec.merge(this.lambda.type().specToMerge());
+        }
+
+        @Override
+        DataResult<VExpression> build(VEnvironment env) {
+            return DataResult.success(new VExpression.Lambda(this.lambda.type(), this.resolved.get(0)));
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.mojang.serialization.Codec;
 import com.mojang.serialization.Decoder;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
 import com.williambl.vampilang.lang.type.SimpleVType;
+import com.williambl.vampilang.lang.type.TypeLattice;
 import com.williambl.vampilang.lang.type.VParameterisedType;
 import com.williambl.vampilang.lang.type.VType;
 import org.jetbrains.annotations.Nullable;
@@ -25,6 +26,18 @@ public interface VEnvironment {
     Map<String, VType> allTypes();
     void registerFunction(VFunctionDefinition function);
     TypeNamer createTypeNamer();
+    // an instance equal to the given type which may be shared with other users of the environment
+    default <T extends VType> T intern(T type) {
+        return type;
+    }
+    // whether a value of the second type can be used where the first is expected
+    default boolean contains(VType type, VType other) {
+        return type.contains(other, this);
+    }
+    // the registered types ordered by containment, for finding common supertypes
+    default TypeLattice typeLattice() {
+        return new TypeLattice(this);
+    }
     default void registerType(String name, VType type, Codec<?> codec) {
         this.registerType(name, type);
         this.registerCodecForType(type, codec);
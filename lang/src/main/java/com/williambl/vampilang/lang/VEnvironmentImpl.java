@@ -1,33 +1,42 @@
 package com.williambl.vampilang.lang;
 
-import com.google.common.collect.Sets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mojang.serialization.Codec;
-import com.mojang.serialization.DataResult;
-import com.mojang.serialization.MapCodec;
-import com.mojang.serialization.codecs.KeyDispatchCodec;
-import com.williambl.vampilang.codec.*;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
 import com.williambl.vampilang.lang.type.*;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+// once everything is registered, an environment can be shared between threads: lookups only read the registries, and
+// the codec caches are concurrent. registering while other threads are using the environment is not supported; freeze()
+// gives an immutable snapshot with its lookups computed up front.
+// containment results are cached by type pair and environment version; registering a type or codec bumps the version,
+// so results computed before it are never used again and age out of the cache. the type lattice is rebuilt in the same way
 public class VEnvironmentImpl implements VEnvironment {
-    protected final Map<String, VType> types = new HashMap<>();
-    protected final Map<VType, Codec<?>> codecs = new HashMap<>();
-    protected final Map<VType, Function<VParameterisedType, Codec<?>>> parameterisedTypeCodecs = new HashMap<>();
-    protected final Map<String, VFunctionDefinition> functions = new HashMap<>();
-    protected final Map<TypeAndSpecCacheKey, Codec<VExpression>> cachedVExpressionCodecs = new HashMap<>();
-    protected final Map<TypeAndSpecCacheKey, Codec<List<VExpression>>> cachedVExpressionMultiCodecs = new HashMap<>();
+    protected final Map<String, VType> types = new ConcurrentHashMap<>();
+    protected final Map<VType, Codec<?>> codecs = new ConcurrentHashMap<>();
+    protected final Map<VType, Function<VParameterisedType, Codec<?>>> parameterisedTypeCodecs = new ConcurrentHashMap<>();
+    protected final Map<String, VFunctionDefinition> functions = new ConcurrentHashMap<>();
+    protected final Map<TypeAndSpecCacheKey, Codec<VExpression>> cachedVExpressionCodecs = new ConcurrentHashMap<>();
+    protected final Map<TypeAndSpecCacheKey, Codec<List<VExpression>>> cachedVExpressionMultiCodecs = new ConcurrentHashMap<>();
+    protected final TypeInterner typeInterner = new TypeInterner();
+    protected final Cache<ContainsCacheKey, Boolean> containsCache = CacheBuilder.newBuilder().maximumSize(10_000).recordStats().build();
+    protected final AtomicLong version = new AtomicLong();
+    protected volatile @Nullable VersionedLattice typeLattice;
 
     @Override
     public Codec<?> rawCodecForType(VType type) {
         var res = this.codecs.get(type);
         if (res == null && type instanceof VParameterisedType paramed && this.parameterisedTypeCodecs.containsKey(paramed.bareType)) {
             var codec = this.parameterisedTypeCodecs.get(paramed.bareType).apply(paramed);
-            this.codecs.put(paramed, codec);
-            return codec;
+            var existing = this.codecs.putIfAbsent(paramed, codec);
+            return existing == null ? codec : existing;
         }
 
         return res;
@@ -35,99 +44,44 @@ public class VEnvironmentImpl implements VEnvironment {
 
     @Override
     public Map<VType, Codec<?>> codecsMatching(VType type) {
-        return this.allTypesMatching(type).stream().map(t -> Optional.ofNullable(this.rawCodecForType(t)).map(v -> Map.entry(t, v))).filter(Optional::isPresent).map(Optional::get).collect(Collectors.toMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue));
+        return Environments.codecsMatching(this, type);
     }
 
     public Set<VType> allTypesMatching(VType type) {
-        Set<VType> set = new HashSet<>();
-        if (type instanceof VTopTemplateType) {
-            set.addAll(this.allTypes().values());
-        } else if (type instanceof VFixedTemplateType template) {
-            set.addAll(template.bounds.stream().map(this::allTypesMatching).flatMap(Set::stream).toList());
-        } else if (type instanceof VDynamicTemplateType template) {
-            set.addAll(template.bounds(this)
-                    .filter(b -> !(b.contains(type, this))) // stop infinite loops
-                    .map(this::allTypesMatching)
-                    .flatMap(Set::stream)
-                    .toList());
-        } else if (type instanceof VParameterisedType paramed) {
-            List<Set<VType>> typesMatchingEachParam = new ArrayList<>();
-            for (int i = 0; i < paramed.parameters.size(); i++) {
-                typesMatchingEachParam.add(this.allTypesMatching(paramed.parameters.get(i)));
-            }
-            Sets.cartesianProduct(typesMatchingEachParam).forEach(assignment -> set.add(paramed.with(assignment)));
-        } else {
-            set.add(type);
-        }
-
-        return set;
+        return Environments.allTypesMatching(this, type);
     }
 
     @Override
     public Codec<VExpression> expressionCodecForType(VType type, EvaluationContext.Spec spec) {
-        return this.cachedVExpressionCodecs.computeIfAbsent(new TypeAndSpecCacheKey(type, spec), $ ->
-                this.expressionMultiCodecForType(type, spec).comapFlatMap(
-                        exprs -> exprs.stream()
-                                .map(expr -> expr.resolveTypes(this, spec))
-                                .map(DataResult::result)
-                                .filter(Optional::isPresent)
-                                .map(Optional::get)
-                                .filter(expr -> type.contains(expr.type(), this))
-                                .map(DataResult::success)
-                                .findFirst()
-                                .orElse(DataResult.error(() -> "Unmatched type")),
-                        List::of)
-        );
+        // not computeIfAbsent, as building a codec can build others and concurrent maps don't allow recursive updates
+        var key = new TypeAndSpecCacheKey(this.intern(type), spec);
+        var cached = this.cachedVExpressionCodecs.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var codec = Environments.expressionCodec(this, type, spec);
+        var existing = this.cachedVExpressionCodecs.putIfAbsent(key, codec);
+        return existing == null ? codec : existing;
     }
 
     @Override
     public Codec<List<VExpression>> expressionMultiCodecForType(VType type, EvaluationContext.Spec spec) {
-        return this.cachedVExpressionMultiCodecs.computeIfAbsent(new TypeAndSpecCacheKey(type, spec), $ -> new VExpressionCodec(
-                ValueDecoder.createCodec(this, spec, type),
-                new KeyDispatchCodec<VFunctionDefinition, List<VExpression.FunctionApplication>>(
-                        "function",
-                        Codec.STRING.comapFlatMap(
-                                name -> Optional.ofNullable(this.functions.get(name)).map(DataResult::success).orElse(DataResult.error(() -> "No such function with name "+name)),
-                                VFunctionDefinition::name),
-                        exprs -> exprs.stream().map(expr -> DataResult.success(expr.function())).findFirst().orElse(DataResult.error(() -> "No entry in list!")),
-                        func -> DataResult.success(MapCodec.assumeMapUnsafe(FunctionApplicationDecoder.createCodec(func, this, spec)))
-                ).codec().comapFlatMap(fs -> Optional.of(fs.stream()
-                                                .map(f -> f.resolveTypes(this, spec)
-                                                        .flatMap(fr -> type.contains(((VExpression.FunctionApplication)fr).resolvedSignature().outputType(), this)
-                                                                ? DataResult.success((VExpression.FunctionApplication) fr)
-                                                                : DataResult.error(() -> "Unmatched type")))
-                                                .map(DataResult::result)
-                                                .filter(Optional::isPresent)
-                                                .map(Optional::get)
-                                                .toList())
-                                        .filter(l -> !l.isEmpty())
-                                        .map(DataResult::success)
-                                        .orElse(DataResult.error(() -> "Unmatched type")),
-                                Function.identity()),
-                VariableRefCodec.CODEC,
-                ObjectConstructionDecoder.createCodec(this, spec).comapFlatMap(os ->
-                                Optional.of(os.stream()
-                                                .map(o -> o.resolveTypes(this, spec)
-                                                        .flatMap(or -> type.contains(or.type(), this)
-                                                                ? DataResult.success((VExpression.ObjectConstruction) or)
-                                                                : DataResult.error(() -> "Unmatched type")))
-                                                .map(DataResult::result)
-                                                .filter(Optional::isPresent)
-                                                .map(Optional::get)
-                                                .toList())
-                                        .filter(l -> !l.isEmpty())
-                                        .map(DataResult::success)
-                                        .orElse(DataResult.error(() -> "Unmatched type!")),
-                        Function.identity()),
-                ListConstructionDecoder.createCodec(this, spec, type),
-                LambdaDecoder.createCodec(this, spec, type)));
+        var key = new TypeAndSpecCacheKey(this.intern(type), spec);
+        var cached = this.cachedVExpressionMultiCodecs.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var codec = Environments.expressionMultiCodec(this, this.functions, type, spec);
+        var existing = this.cachedVExpressionMultiCodecs.putIfAbsent(key, codec);
+        return existing == null ? codec : existing;
     }
 
     @Override
     public void registerType(String name, VType type) {
         this.types.put(name, type);
+        this.version.incrementAndGet();
     }
 
     @Override
@@ -144,11 +98,13 @@ public class VEnvironmentImpl implements VEnvironment {
     @Override
     public void registerCodecForType(VType type, Codec<?> codec) {
         this.codecs.put(type, codec);
+        this.version.incrementAndGet();
     }
 
     @Override
     public void registerCodecForParameterisedType(SimpleVType bareType, Function<VParameterisedType, Codec<?>> codecForType) {
         this.parameterisedTypeCodecs.put(bareType, codecForType);
+        this.version.incrementAndGet();
     }
 
     @Override
@@ -161,6 +117,51 @@ public class VEnvironmentImpl implements VEnvironment {
         this.functions.put(function.name(), function);
     }
 
+    @Override
+    public <T extends VType> T intern(T type) {
+        return this.typeInterner.intern(type);
+    }
+
+    @Override
+    public boolean contains(VType type, VType other) {
+        // not a loader, as checking containment can check it for other types too
+        var key = new ContainsCacheKey(this.version.get(), type, other);
+        var cached = this.containsCache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean result = type.contains(other, this);
+        this.containsCache.put(key, result);
+        return result;
+    }
+
+    @Override
+    public TypeLattice typeLattice() {
+        long version = this.version.get();
+        var lattice = this.typeLattice;
+        if (lattice == null || lattice.version() != version) {
+            lattice = new VersionedLattice(version, new TypeLattice(this));
+            this.typeLattice = lattice;
+        }
+
+        return lattice.lattice();
+    }
+
+    // an immutable copy of this environment, which later registrations here do not affect
+    public FrozenVEnvironment freeze() {
+        return new FrozenVEnvironment(this);
+    }
+
+    public long version() {
+        return this.version.get();
+    }
+
+    public ContainsCacheStatistics containsCacheStatistics() {
+        var stats = this.containsCache.stats();
+        return new ContainsCacheStatistics(stats.hitCount(), stats.missCount());
+    }
+
     @Override
     public TypeNamer createTypeNamer() {
         var reversedMap = this.types.entrySet().stream()
@@ -172,4 +173,13 @@ public class VEnvironmentImpl implements VEnvironment {
 
     protected record TypeAndSpecCacheKey(VType type, EvaluationContext.Spec spec) {
     }
+
+    protected record VersionedLattice(long version, TypeLattice lattice) {
+    }
+
+    protected record ContainsCacheKey(long version, VType type, VType other) {
+    }
+
+    public record ContainsCacheStatistics(long hits, long misses) {
+    }
 }
@@ -1,6 +1,7 @@
 package com.williambl.vampilang.lang;
 
 import com.mojang.serialization.DataResult;
+import com.williambl.vampilang.lang.compile.CompiledExpression;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
 import com.williambl.vampilang.lang.function.VFunctionSignature;
 import com.williambl.vampilang.lang.type.ConstructableVType;
@@ -11,7 +12,6 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public sealed interface VExpression {
     public static VExpression functionApplication(VFunctionDefinition function, Map<String, VExpression> inputs) {
@@ -62,17 +62,7 @@ public sealed interface VExpression {
 
         @Override
         public DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec) {
-            var resolvedInputsRes = bubbleUp(this.inputs.entrySet().stream()
-                    .map(kv -> kv.getValue().resolveTypes(env, spec).map(v -> Map.entry(kv.getKey(), v)))).map(s ->
-                    s.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
-            return resolvedInputsRes.flatMap(resolvedInputs -> {
-                var resolvedFunctionSignature = this.function.signature()
-                        .uniquise()
-                        .resolveTypes(env, resolvedInputs.entrySet()
-                                .stream()
-                                .collect(Collectors.toMap(Map.Entry::getKey, kv -> kv.getValue().type())));
-                return resolvedFunctionSignature.map(sig -> new FunctionApplication(this.function, sig, resolvedInputs));
-            });
+            return TypeResolver.resolve(this, env, spec);
         }
 
         @Override
@@ -106,6 +96,16 @@ public sealed interface VExpression {
                 throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
             }
 
+            if (this.function.specialisation() instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && this.inputs.get(shortCircuit.operands()) instanceof ListConstruction operands) {
+                for (var operand : operands.entries()) {
+                    if ((Boolean) operand.evaluate(ctx).value() == shortCircuit.decisive()) {
+                        return VValue.trusted(this.resolvedSignature.outputType(), shortCircuit.decisive(), ctx.env());
+                    }
+                }
+
+                return VValue.trusted(this.resolvedSignature.outputType(), !shortCircuit.decisive(), ctx.env());
+            }
+
             Map<String, VValue> evaluatedInputs = new HashMap<>();
             return this.function.function().apply(ctx, this.resolvedSignature, s -> evaluatedInputs.computeIfAbsent(s, k -> this.inputs.get(k).evaluate(ctx)));
         }
@@ -127,7 +127,7 @@ public sealed interface VExpression {
 
         @Override
         public DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec) {
-            return DataResult.success(this);
+            return TypeResolver.resolve(this, env, spec);
         }
         @Override
         public VType type() {
@@ -158,13 +158,14 @@ public sealed interface VExpression {
         }
     }
 
-    public record VariableRef(String name, @Nullable VType resolvedType) implements VExpression {
+    public record VariableRef(String name, @Nullable VType resolvedType, int slot) implements VExpression {
+        public VariableRef(String name, @Nullable VType resolvedType) {
+            this(name, resolvedType, -1);
+        }
 
         @Override
         public DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec) {
-            return Optional.ofNullable(spec.nullableTypeOf(this.name))
-                    .map(type -> DataResult.success((VExpression) new VariableRef(this.name, type)))
-                    .orElse(DataResult.error(() -> "No variable with name "+this.name));
+            return TypeResolver.resolve(this, env, spec);
         }
 
         @Override
@@ -174,7 +175,7 @@ public sealed interface VExpression {
 
         @Override
         public VValue evaluate(EvaluationContext ctx) {
-            return ctx.getVariable(this.name, this.type());
+            return ctx.getVariable(this.slot, this.name, this.type());
         }
 
         @Override
@@ -182,6 +183,7 @@ public sealed interface VExpression {
             return "(variable %s : %s)".formatted(this.name, this.type().toString(ctx));
         }
 
+        // the slot only depends on the spec the ref was resolved against, so it is not part of equality
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -200,24 +202,7 @@ public sealed interface VExpression {
 
         @Override
         public DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec) {
-            var resolvedPropertiesRes = bubbleUp(this.properties.entrySet().stream()
-                    .map(kv -> kv.getValue().resolveTypes(env, spec).map(v -> Map.entry(kv.getKey(), v)))).map(s ->
-                    s.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
-            return resolvedPropertiesRes.flatMap(resolvedProperties -> {
-                var resultType = env.getType(this.typeName);
-                if (!(resultType instanceof ConstructableVType<?> constructableVType)) {
-                    return DataResult.error(() -> "Type %s must be constructable to be used in an object literal expression".formatted(this.typeName));
-                }
-                var expectedPropertyTypes = constructableVType.propertyTypes;
-                for (var key : expectedPropertyTypes.keySet()) {
-                    var expected = expectedPropertyTypes.get(key);
-                    var actual = resolvedProperties.get(key);
-                    if (actual == null || !expected.contains(actual.type(), env)) {
-                        return DataResult.error(() -> "Argument %s should be of type %s!".formatted(key, expected));
-                    }
-                }
-                return DataResult.success(new ObjectConstruction(this.typeName, resolvedProperties, constructableVType));
-            });
+            return TypeResolver.resolve(this, env, spec);
         }
 
         @Override
@@ -241,7 +226,7 @@ public sealed interface VExpression {
 
             var result = this.resolvedType.constructor.apply(propertiesValues);
 
-            return VValue.value(this.resolvedType, result, ctx.env());
+            return VValue.trusted(this.resolvedType, result, ctx.env());
         }
 
         @Override
@@ -279,42 +264,7 @@ public sealed interface VExpression {
     public record ListConstruction(@Nullable VParameterisedType resolvedType, List<VExpression> entries) implements VExpression {
         @Override
         public DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec) {
-            var listType = env.listType();
-            if (listType == null) {
-                return DataResult.error(() -> "No list type in environment!");
-            }
-
-            if (this.entries.isEmpty()) {
-                return this.resolvedType != null
-                        ? (this.resolvedType.bareType.equals(listType.bareType)
-                                ? DataResult.success(this)
-                                : DataResult.error(() -> "List has non-list resolved type! (type: %s. list<> type: %s)".formatted(this.resolvedType, listType)))
-                        : DataResult.error(() -> "Empty list has no set type!"); //todo should this just return plain list type?
-            }
-
-            return VExpression.bubbleUp(this.entries.stream().map(e -> e.resolveTypes(env, spec))).map(Stream::toList).flatMap(resolvedEntries -> {
-                if (resolvedEntries.isEmpty()) {
-                    return DataResult.success(new ListConstruction(listType, resolvedEntries));
-                }
-                VType mostSpecificCommonSupertype = null;
-                var allTypes = env.allTypes().values();
-                supertypes: for (var possibleSupertype : allTypes) {
-                    for (var entry : resolvedEntries) {
-                        if (!possibleSupertype.contains(entry.type(), env)) {
-                            continue supertypes;
-                        }
-                    }
-                    if (mostSpecificCommonSupertype == null || mostSpecificCommonSupertype.contains(possibleSupertype, env)) {
-                        mostSpecificCommonSupertype = possibleSupertype;
-                    }
-                }
-                if (mostSpecificCommonSupertype == null) {
-                    String err = "No common supertype found for types [%s] in list!".formatted(resolvedEntries.stream().map(VExpression::type).map(Object::toString).collect(Collectors.joining(", ")));
-                    return DataResult.error(() -> err);
-                }
-
-                return DataResult.success(new ListConstruction(listType.with(0, mostSpecificCommonSupertype), resolvedEntries));
-            });
+            return TypeResolver.resolve(this, env, spec);
         }
 
         @Override
@@ -329,7 +279,7 @@ public sealed interface VExpression {
         @Override
         public VValue evaluate(EvaluationContext ctx) {
             var evaluatedEntries = this.entries.stream().map(e -> e.evaluate(ctx)).toList();
-            return VValue.value(this.resolvedType(), evaluatedEntries, ctx.env());
+            return VValue.trusted(this.resolvedType(), evaluatedEntries, ctx.env());
         }
 
         @Override
@@ -351,7 +301,7 @@ public sealed interface VExpression {
 
         @Override
         public DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec) {
-            return this.expr.resolveTypes(env, spec.merge(this.type.specToMerge())).map(expr -> new Lambda(this.type, expr));
+            return TypeResolver.resolve(this, env, spec);
         }
 
         @Override
@@ -361,25 +311,17 @@ public sealed interface VExpression {
 
         @Override
         public VValue evaluate(EvaluationContext ctx) {
-            return VValue.value(this.type, this.expr, ctx.env());
+            return VValue.trusted(this.type, this.expr, ctx.env());
         }
     }
 
+    // iterative, so not limited in depth by the thread's stack
     DataResult<VExpression> resolveTypes(VEnvironment env, EvaluationContext.Spec spec);
     VType type();
     VValue evaluate(EvaluationContext ctx);
     String toString(TypeNamer ctx);
 
-    private static <T> DataResult<Stream<T>> bubbleUp(Stream<DataResult<T>> stream) {
-        var streamContents = new ArrayList<T>();
-        var errors = new ArrayList<String>();
-        stream.forEach(res -> {
-            if (res.result().isPresent()) {
-                streamContents.add(res.result().get());
-            } else {
-                errors.add(res.error().map(DataResult.Error::message).orElse("?"));
-            }
-        });
-        return errors.isEmpty() ? DataResult.success(streamContents.stream()) : DataResult.error(() -> String.join("\n and ", errors));
+    default CompiledExpression compile() {
+        return CompiledExpression.compile(this);
     }
 }
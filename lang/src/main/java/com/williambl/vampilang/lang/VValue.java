@@ -7,10 +7,19 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 
 public record VValue(VType type, Object value) {
+    // whether trusted values are checked anyway, set with -Dvampilang.strict=true
+    public static final boolean STRICT = Boolean.getBoolean("vampilang.strict");
+
     public static <T> VValue value(VType type, T obj, VEnvironment env) {
         return new VValue(type, obj, env);
     }
 
+    // for values whose type has already been proven by type resolution, such as function results and constructed lists
+    // and objects. the type's acceptance check is skipped unless strict mode is on
+    public static <T> VValue trusted(VType type, T obj, VEnvironment env) {
+        return STRICT ? new VValue(type, obj, env) : new VValue(type, obj);
+    }
+
     public VValue(VType type, Object value, VEnvironment env) {
         this(type, value);
         if (!this.type.accepts(this.value, env)) {
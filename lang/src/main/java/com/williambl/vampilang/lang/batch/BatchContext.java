@@ -0,0 +1,105 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VEnvironment;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.type.VType;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public final class BatchContext {
+    private final int size;
+    private final Map<String, Column> columns;
+    private final VEnvironment env;
+
+    private BatchContext(int size, Map<String, Column> columns, VEnvironment env) {
+        this.size = size;
+        this.columns = columns;
+        this.env = env;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public VEnvironment env() {
+        return this.env;
+    }
+
+    public @Nullable Column column(String name) {
+        return this.columns.get(name);
+    }
+
+    Column column(String name, VType type) {
+        var column = this.columns.get(name);
+        if (column == null) {
+            throw new NoSuchElementException("No variable with name " + name);
+        }
+
+        if (!column.conformsTo(type, this.env)) {
+            throw new IllegalStateException("Variable %s is not of type %s".formatted(name, type));
+        }
+
+        return column;
+    }
+
+    Map<String, Column> columns() {
+        return this.columns;
+    }
+
+    public EvaluationContext row(int row) {
+        return new RowEvaluationContext(this, row);
+    }
+
+    public static Builder builder(EvaluationContext.Spec spec, int size) {
+        return new Builder(spec, size);
+    }
+
+    public static class Builder {
+        private final EvaluationContext.Spec spec;
+        private final int size;
+        private final Map<String, Column> columns = new HashMap<>();
+
+        private Builder(EvaluationContext.Spec spec, int size) {
+            this.spec = spec;
+            this.size = size;
+        }
+
+        public Builder addColumn(String name, Column column) {
+            if (column.size() != this.size) {
+                throw new IllegalArgumentException("Column %s has %s rows, but the batch has %s".formatted(name, column.size(), this.size));
+            }
+
+            this.columns.put(name, column);
+            return this;
+        }
+
+        public Builder addDoubles(String name, VType type, double[] values) {
+            return this.addColumn(name, new Column.DoubleColumn(type, values));
+        }
+
+        public Builder addBooleans(String name, VType type, boolean[] values) {
+            return this.addColumn(name, new Column.BooleanColumn(type, values));
+        }
+
+        public Builder addValues(String name, VValue[] values) {
+            return this.addColumn(name, new Column.ValueColumn(values));
+        }
+
+        public BatchContext build(VEnvironment env) {
+            for (int i = 0; i < this.spec.size(); i++) {
+                var name = this.spec.nameOfSlot(i);
+                var type = this.spec.typeOfSlot(i);
+                var column = this.columns.get(name);
+                if (column == null || !column.conformsTo(type, env)) {
+                    throw new IllegalStateException("Batch Context missing variable %s of type %s".formatted(name, type));
+                }
+            }
+
+            return new BatchContext(this.size, Map.copyOf(this.columns), env);
+        }
+    }
+}
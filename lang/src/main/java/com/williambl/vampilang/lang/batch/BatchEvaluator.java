@@ -0,0 +1,453 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+import com.williambl.vampilang.lang.type.VType;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// evaluates an expression over a whole batch at once, visiting each node once per batch. every node is evaluated for a
+// selection of rows, and produces a column with one entry per selected row. conditionals and short-circuiting operators
+// narrow the selection for their later inputs, so rows only evaluate what they would have evaluated one at a time.
+// other functions are called row by row. their strict pure inputs are evaluated for the whole selection first, and any
+// other input is evaluated for a row only when that row asks for it
+public final class BatchEvaluator {
+    private static final DoubleKernels KERNELS = DoubleKernels.load();
+    private final BatchContext ctx;
+    private final Map<VExpression, Boolean> purity = new IdentityHashMap<>();
+
+    // the purity of every node is worked out before evaluating, so workers evaluating chunks only ever read it
+    private BatchEvaluator(BatchContext ctx, VExpression expr) {
+        this.ctx = ctx;
+        SubexpressionSharing.isPure(expr, this.purity);
+    }
+
+    public static Column evaluateBatch(VExpression expr, BatchContext ctx) {
+        var rows = new int[ctx.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+
+        return new BatchEvaluator(ctx, expr).evaluate(expr, rows);
+    }
+
+    public static Column evaluateBatch(VExpression expr, BatchContext ctx, int chunkSize) {
+        return evaluateBatch(expr, ctx, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    // splits the batch into chunks of at most chunkSize rows and evaluates them on the executor, then joins the chunks
+    // back together in row order. workers only read the expression, the batch and its environment, so these are shared
+    // between them. functions are called from several threads at once, so they must not keep unsynchronised state
+    public static Column evaluateBatch(VExpression expr, BatchContext ctx, int chunkSize, Executor executor) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive, but was " + chunkSize);
+        }
+
+        if (ctx.size() <= chunkSize) {
+            return evaluateBatch(expr, ctx);
+        }
+
+        var evaluator = new BatchEvaluator(ctx, expr);
+        var chunks = new Column[(ctx.size() + chunkSize - 1) / chunkSize];
+        if (executor instanceof ForkJoinPool pool) {
+            pool.invoke(new ChunkTask(evaluator, expr, chunks, chunkSize, 0, chunks.length));
+        } else {
+            var futures = new CompletableFuture<?>[chunks.length];
+            for (int i = 0; i < chunks.length; i++) {
+                int chunk = i;
+                futures[i] = CompletableFuture.runAsync(() -> chunks[chunk] = evaluator.evaluateChunk(expr, chunk, chunkSize), executor);
+            }
+
+            try {
+                CompletableFuture.allOf(futures).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                } else if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+
+                throw e;
+            }
+        }
+
+        return concat(chunks, ctx);
+    }
+
+    // whether numeric kernels use the vector api, which needs --add-modules jdk.incubator.vector
+    public static boolean isVectorised() {
+        return KERNELS.vectorised();
+    }
+
+    private Column evaluateChunk(VExpression expr, int chunk, int chunkSize) {
+        int from = chunk * chunkSize;
+        var rows = new int[Math.min(chunkSize, this.ctx.size() - from)];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = from + i;
+        }
+
+        return this.evaluate(expr, rows);
+    }
+
+    private Column evaluate(VExpression expr, int[] rows) {
+        if (expr instanceof VExpression.Value value) {
+            return new Column.ConstantColumn(value.value(), rows.length);
+        } else if (expr instanceof VExpression.VariableRef variableRef) {
+            return this.gather(this.ctx.column(variableRef.name(), variableRef.type()), rows);
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            var values = new VValue[rows.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = lambda.evaluate(this.ctx.row(rows[i]));
+            }
+
+            return new Column.ValueColumn(values);
+        } else if (expr instanceof VExpression.FunctionApplication app) {
+            if (app.resolvedSignature() == null) {
+                throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+            }
+
+            return this.evaluateApplication(app, rows);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            var entries = new Column[list.entries().size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = this.evaluate(list.entries().get(i), rows);
+            }
+
+            var values = new VValue[rows.length];
+            for (int i = 0; i < values.length; i++) {
+                var entryValues = new VValue[entries.length];
+                for (int j = 0; j < entryValues.length; j++) {
+                    entryValues[j] = entries[j].get(i, this.ctx.env());
+                }
+
+                values[i] = VValue.trusted(list.resolvedType(), List.of(entryValues), this.ctx.env());
+            }
+
+            return new Column.ValueColumn(values);
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            if (object.resolvedType() == null) {
+                throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+            }
+
+            var properties = new HashMap<String, Column>();
+            for (var property : object.properties().entrySet()) {
+                properties.put(property.getKey(), this.evaluate(property.getValue(), rows));
+            }
+
+            var values = new VValue[rows.length];
+            for (int i = 0; i < values.length; i++) {
+                var propertyValues = new HashMap<String, VValue>();
+                for (var property : properties.entrySet()) {
+                    propertyValues.put(property.getKey(), property.getValue().get(i, this.ctx.env()));
+                }
+
+                values[i] = VValue.trusted(object.resolvedType(), object.resolvedType().constructor.apply(propertyValues), this.ctx.env());
+            }
+
+            return new Column.ValueColumn(values);
+        }
+
+        throw new IllegalArgumentException("Unknown expression kind: " + expr.getClass());
+    }
+
+    private Column evaluateApplication(VExpression.FunctionApplication app, int[] rows) {
+        var type = app.resolvedSignature().outputType();
+        var specialisation = app.function().specialisation();
+        if (specialisation instanceof VFunctionDefinition.Specialisation.DoubleUnary unary) {
+            var operand = doubles(this.evaluate(input(app, unary.operand()), rows));
+            var result = new double[rows.length];
+            KERNELS.unary(unary, operand, result);
+            return new Column.DoubleColumn(type, result);
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.DoubleBinary binary) {
+            var a = doubles(this.evaluate(input(app, binary.a()), rows));
+            var b = doubles(this.evaluate(input(app, binary.b()), rows));
+            var result = new double[rows.length];
+            KERNELS.binary(binary, a, b, result);
+            return new Column.DoubleColumn(type, result);
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.DoubleComparison comparison) {
+            var a = doubles(this.evaluate(input(app, comparison.a()), rows));
+            var b = doubles(this.evaluate(input(app, comparison.b()), rows));
+            var result = new boolean[rows.length];
+            KERNELS.compare(comparison, a, b, result);
+            return new Column.BooleanColumn(type, result);
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.BooleanUnary unary) {
+            var operand = booleans(this.evaluate(input(app, unary.operand()), rows));
+            var result = new boolean[rows.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = unary.operator().applyAsBoolean(operand[i]);
+            }
+
+            return new Column.BooleanColumn(type, result);
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction operands) {
+            return this.evaluateShortCircuit(type, shortCircuit.decisive(), operands.entries(), rows);
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.Conditional conditional) {
+            return this.evaluateConditional(input(app, conditional.predicate()), input(app, conditional.ifTrue()), input(app, conditional.ifFalse()), rows);
+        }
+
+        return this.evaluateGeneric(app, rows);
+    }
+
+    private Column evaluateShortCircuit(VType type, boolean decisive, List<VExpression> operands, int[] rows) {
+        var result = new boolean[rows.length];
+        Arrays.fill(result, !decisive);
+        var undecidedRows = rows.clone();
+        var undecidedPositions = new int[rows.length];
+        for (int i = 0; i < undecidedPositions.length; i++) {
+            undecidedPositions[i] = i;
+        }
+
+        for (var operand : operands) {
+            if (undecidedRows.length == 0) {
+                break;
+            }
+
+            var values = booleans(this.evaluate(operand, undecidedRows));
+            int remaining = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == decisive) {
+                    result[undecidedPositions[i]] = decisive;
+                } else {
+                    undecidedRows[remaining] = undecidedRows[i];
+                    undecidedPositions[remaining++] = undecidedPositions[i];
+                }
+            }
+
+            undecidedRows = Arrays.copyOf(undecidedRows, remaining);
+        }
+
+        return new Column.BooleanColumn(type, result);
+    }
+
+    private Column evaluateConditional(VExpression predicate, VExpression ifTrue, VExpression ifFalse, int[] rows) {
+        var predicateValues = booleans(this.evaluate(predicate, rows));
+        int trueCount = 0;
+        for (var value : predicateValues) {
+            if (value) {
+                trueCount++;
+            }
+        }
+
+        var trueRows = new int[trueCount];
+        var falseRows = new int[rows.length - trueCount];
+        for (int i = 0, t = 0, f = 0; i < rows.length; i++) {
+            if (predicateValues[i]) {
+                trueRows[t++] = rows[i];
+            } else {
+                falseRows[f++] = rows[i];
+            }
+        }
+
+        var trueColumn = trueRows.length == 0 ? null : this.evaluate(ifTrue, trueRows);
+        var falseColumn = falseRows.length == 0 ? null : this.evaluate(ifFalse, falseRows);
+        if (trueColumn == null || falseColumn == null) {
+            return trueColumn == null ? falseColumn : trueColumn;
+        }
+
+        if (trueColumn instanceof Column.DoubleColumn trueDoubles && falseColumn instanceof Column.DoubleColumn falseDoubles && trueDoubles.type().equals(falseDoubles.type())) {
+            var result = new double[rows.length];
+            for (int i = 0, t = 0, f = 0; i < rows.length; i++) {
+                result[i] = predicateValues[i] ? trueDoubles.values()[t++] : falseDoubles.values()[f++];
+            }
+
+            return new Column.DoubleColumn(trueDoubles.type(), result);
+        } else if (trueColumn instanceof Column.BooleanColumn trueBooleans && falseColumn instanceof Column.BooleanColumn falseBooleans && trueBooleans.type().equals(falseBooleans.type())) {
+            var result = new boolean[rows.length];
+            for (int i = 0, t = 0, f = 0; i < rows.length; i++) {
+                result[i] = predicateValues[i] ? trueBooleans.values()[t++] : falseBooleans.values()[f++];
+            }
+
+            return new Column.BooleanColumn(trueBooleans.type(), result);
+        }
+
+        var result = new VValue[rows.length];
+        for (int i = 0, t = 0, f = 0; i < rows.length; i++) {
+            result[i] = predicateValues[i] ? trueColumn.get(t++, this.ctx.env()) : falseColumn.get(f++, this.ctx.env());
+        }
+
+        return new Column.ValueColumn(result);
+    }
+
+    private Column evaluateGeneric(VExpression.FunctionApplication app, int[] rows) {
+        var columns = new HashMap<String, Column>();
+        for (var input : app.inputs().entrySet()) {
+            if (app.function().isStrict(input.getKey()) && this.purity.getOrDefault(input.getValue(), false)) {
+                columns.put(input.getKey(), this.evaluate(input.getValue(), rows));
+            }
+        }
+
+        var result = new VValue[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int position = i;
+            int row = rows[i];
+            var values = new HashMap<String, VValue>();
+            result[i] = app.function().function().apply(this.ctx.row(row), app.resolvedSignature(), name -> {
+                var column = columns.get(name);
+                if (column != null) {
+                    return column.get(position, this.ctx.env());
+                }
+
+                return values.computeIfAbsent(name, n -> {
+                    var input = app.inputs().get(n);
+                    if (input == null) {
+                        throw new NoSuchElementException("No input with name " + n);
+                    }
+
+                    return this.evaluate(input, new int[]{row}).get(0, this.ctx.env());
+                });
+            });
+        }
+
+        return new Column.ValueColumn(result);
+    }
+
+    private Column gather(Column column, int[] rows) {
+        if (rows.length == column.size()) {
+            return column;
+        }
+
+        if (column instanceof Column.DoubleColumn doubles) {
+            var result = new double[rows.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = doubles.values()[rows[i]];
+            }
+
+            return new Column.DoubleColumn(doubles.type(), result);
+        } else if (column instanceof Column.BooleanColumn booleans) {
+            var result = new boolean[rows.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = booleans.values()[rows[i]];
+            }
+
+            return new Column.BooleanColumn(booleans.type(), result);
+        } else if (column instanceof Column.ConstantColumn constant) {
+            return new Column.ConstantColumn(constant.value(), rows.length);
+        }
+
+        var result = new VValue[rows.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = column.get(rows[i], this.ctx.env());
+        }
+
+        return new Column.ValueColumn(result);
+    }
+
+    private static double[] doubles(Column column) {
+        if (column instanceof Column.DoubleColumn doubles) {
+            return doubles.values();
+        }
+
+        var result = new double[column.size()];
+        if (column instanceof Column.ConstantColumn constant) {
+            Arrays.fill(result, ((Number) constant.value().value()).doubleValue());
+        } else if (column instanceof Column.ValueColumn values) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = ((Number) values.values()[i].value()).doubleValue();
+            }
+        } else {
+            throw new ClassCastException("Column %s does not hold numbers".formatted(column));
+        }
+
+        return result;
+    }
+
+    private static boolean[] booleans(Column column) {
+        if (column instanceof Column.BooleanColumn booleans) {
+            return booleans.values();
+        }
+
+        var result = new boolean[column.size()];
+        if (column instanceof Column.ConstantColumn constant) {
+            Arrays.fill(result, (Boolean) constant.value().value());
+        } else if (column instanceof Column.ValueColumn values) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (Boolean) values.values()[i].value();
+            }
+        } else {
+            throw new ClassCastException("Column %s does not hold booleans".formatted(column));
+        }
+
+        return result;
+    }
+
+    private static Column concat(Column[] chunks, BatchContext ctx) {
+        var first = chunks[0];
+        if (Arrays.stream(chunks).allMatch(c -> c instanceof Column.DoubleColumn doubles && doubles.type().equals(((Column.DoubleColumn) first).type()))) {
+            var result = new double[ctx.size()];
+            for (int i = 0, offset = 0; i < chunks.length; offset += chunks[i++].size()) {
+                var values = ((Column.DoubleColumn) chunks[i]).values();
+                System.arraycopy(values, 0, result, offset, values.length);
+            }
+
+            return new Column.DoubleColumn(((Column.DoubleColumn) first).type(), result);
+        } else if (Arrays.stream(chunks).allMatch(c -> c instanceof Column.BooleanColumn booleans && booleans.type().equals(((Column.BooleanColumn) first).type()))) {
+            var result = new boolean[ctx.size()];
+            for (int i = 0, offset = 0; i < chunks.length; offset += chunks[i++].size()) {
+                var values = ((Column.BooleanColumn) chunks[i]).values();
+                System.arraycopy(values, 0, result, offset, values.length);
+            }
+
+            return new Column.BooleanColumn(((Column.BooleanColumn) first).type(), result);
+        } else if (Arrays.stream(chunks).allMatch(c -> c instanceof Column.ConstantColumn constant && constant.value().equals(((Column.ConstantColumn) first).value()))) {
+            return new Column.ConstantColumn(((Column.ConstantColumn) first).value(), ctx.size());
+        }
+
+        var result = new VValue[ctx.size()];
+        for (int i = 0, offset = 0; i < chunks.length; offset += chunks[i++].size()) {
+            for (int row = 0; row < chunks[i].size(); row++) {
+                result[offset + row] = chunks[i].get(row, ctx.env());
+            }
+        }
+
+        return new Column.ValueColumn(result);
+    }
+
+    // evaluates chunks [from, to), halving the range until it is a single chunk
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BatchEvaluator evaluator;
+        private final VExpression expr;
+        private final Column[] chunks;
+        private final int chunkSize;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(BatchEvaluator evaluator, VExpression expr, Column[] chunks, int chunkSize, int from, int to) {
+            this.evaluator = evaluator;
+            this.expr = expr;
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.chunks[this.from] = this.evaluator.evaluateChunk(this.expr, this.from, this.chunkSize);
+                return;
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(
+                    new ChunkTask(this.evaluator, this.expr, this.chunks, this.chunkSize, this.from, middle),
+                    new ChunkTask(this.evaluator, this.expr, this.chunks, this.chunkSize, middle, this.to));
+        }
+    }
+
+    private static VExpression input(VExpression.FunctionApplication app, String name) {
+        var input = app.inputs().get(name);
+        if (input == null) {
+            throw new UnsupportedOperationException("Missing input %s for function %s".formatted(name, app.function().name()));
+        }
+
+        return input;
+    }
+}
@@ -0,0 +1,82 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.VEnvironment;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.type.VType;
+
+public sealed interface Column {
+    int size();
+
+    VValue get(int row, VEnvironment env);
+
+    boolean conformsTo(VType type, VEnvironment env);
+
+    record DoubleColumn(VType type, double[] values) implements Column {
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public VValue get(int row, VEnvironment env) {
+            return VValue.trusted(this.type, this.values[row], env);
+        }
+
+        @Override
+        public boolean conformsTo(VType type, VEnvironment env) {
+            return env.contains(type, this.type);
+        }
+    }
+
+    record BooleanColumn(VType type, boolean[] values) implements Column {
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public VValue get(int row, VEnvironment env) {
+            return VValue.trusted(this.type, this.values[row], env);
+        }
+
+        @Override
+        public boolean conformsTo(VType type, VEnvironment env) {
+            return env.contains(type, this.type);
+        }
+    }
+
+    record ValueColumn(VValue[] values) implements Column {
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public VValue get(int row, VEnvironment env) {
+            return this.values[row];
+        }
+
+        @Override
+        public boolean conformsTo(VType type, VEnvironment env) {
+            for (var value : this.values) {
+                if (!env.contains(type, value.type())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    record ConstantColumn(VValue value, int size) implements Column {
+        @Override
+        public VValue get(int row, VEnvironment env) {
+            return this.value;
+        }
+
+        @Override
+        public boolean conformsTo(VType type, VEnvironment env) {
+            return env.contains(type, this.value.type());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+
+interface DoubleKernels {
+    void unary(VFunctionDefinition.Specialisation.DoubleUnary specialisation, double[] operand, double[] result);
+
+    void binary(VFunctionDefinition.Specialisation.DoubleBinary specialisation, double[] a, double[] b, double[] result);
+
+    void compare(VFunctionDefinition.Specialisation.DoubleComparison specialisation, double[] a, double[] b, boolean[] result);
+
+    boolean vectorised();
+
+    // the vector api is an incubator module, so only touch the vectorised kernels once we know it has been added
+    static DoubleKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (DoubleKernels) Class.forName("com.williambl.vampilang.lang.batch.VectorDoubleKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarDoubleKernels();
+            }
+        }
+
+        return new ScalarDoubleKernels();
+    }
+}
@@ -0,0 +1,43 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VValue;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Set;
+
+// a view of one row of a batch, for functions that need a context of their own
+final class RowEvaluationContext extends EvaluationContext {
+    RowEvaluationContext(BatchContext batch, int row) {
+        super(new RowVariables(batch, row), batch.env());
+    }
+
+    private static final class RowVariables extends AbstractMap<String, VValue> {
+        private final BatchContext batch;
+        private final int row;
+
+        private RowVariables(BatchContext batch, int row) {
+            this.batch = batch;
+            this.row = row;
+        }
+
+        @Override
+        public VValue get(Object key) {
+            var column = key instanceof String name ? this.batch.column(name) : null;
+            return column == null ? null : column.get(this.row, this.batch.env());
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String name && this.batch.column(name) != null;
+        }
+
+        @Override
+        public Set<Entry<String, VValue>> entrySet() {
+            var values = new HashMap<String, VValue>();
+            this.batch.columns().forEach((name, column) -> values.put(name, column.get(this.row, this.batch.env())));
+            return values.entrySet();
+        }
+    }
+}
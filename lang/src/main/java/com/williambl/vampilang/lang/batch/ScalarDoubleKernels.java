@@ -0,0 +1,46 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+
+class ScalarDoubleKernels implements DoubleKernels {
+    @Override
+    public void unary(VFunctionDefinition.Specialisation.DoubleUnary specialisation, double[] operand, double[] result) {
+        unaryTail(specialisation, operand, result, 0);
+    }
+
+    @Override
+    public void binary(VFunctionDefinition.Specialisation.DoubleBinary specialisation, double[] a, double[] b, double[] result) {
+        binaryTail(specialisation, a, b, result, 0);
+    }
+
+    @Override
+    public void compare(VFunctionDefinition.Specialisation.DoubleComparison specialisation, double[] a, double[] b, boolean[] result) {
+        compareTail(specialisation, a, b, result, 0);
+    }
+
+    @Override
+    public boolean vectorised() {
+        return false;
+    }
+
+    static void unaryTail(VFunctionDefinition.Specialisation.DoubleUnary specialisation, double[] operand, double[] result, int from) {
+        var operator = specialisation.operator();
+        for (int i = from; i < result.length; i++) {
+            result[i] = operator.applyAsDouble(operand[i]);
+        }
+    }
+
+    static void binaryTail(VFunctionDefinition.Specialisation.DoubleBinary specialisation, double[] a, double[] b, double[] result, int from) {
+        var operator = specialisation.operator();
+        for (int i = from; i < result.length; i++) {
+            result[i] = operator.applyAsDouble(a[i], b[i]);
+        }
+    }
+
+    static void compareTail(VFunctionDefinition.Specialisation.DoubleComparison specialisation, double[] a, double[] b, boolean[] result, int from) {
+        var predicate = specialisation.predicate();
+        for (int i = from; i < result.length; i++) {
+            result[i] = predicate.test(a[i], b[i]);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+
+@FunctionalInterface
+public interface CompiledExpression {
+    VValue evaluate(EvaluationContext ctx);
+
+    static CompiledExpression compile(VExpression expr) {
+        return ExpressionCompiler.compile(expr);
+    }
+}
@@ -0,0 +1,193 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+// per-thread scratch space for compiled evaluation. a generic function application takes an argument frame from the top
+// of its thread's stack and gives it back when the function returns, so once a thread has been as deep as a program goes,
+// applying functions allocates nothing. the frames are only valid while the function they were passed to is running.
+// each evaluation of a program with shared nodes also opens a scope, holding a slot for each shared node's value. the
+// scope is closed when the evaluation ends, so nothing is kept between evaluations or seen by other threads
+final class EvaluationFrames {
+    private static final ThreadLocal<EvaluationFrames> FRAMES = ThreadLocal.withInitial(EvaluationFrames::new);
+
+    private Arguments[] arguments = new Arguments[16];
+    private int depth;
+    private Scope[] scopes = new Scope[4];
+    private int scopeDepth;
+
+    private EvaluationFrames() {
+    }
+
+    static EvaluationFrames get() {
+        return FRAMES.get();
+    }
+
+    Arguments push(String[] names, CompiledExpression[] inputs, EvaluationContext ctx) {
+        if (this.depth == this.arguments.length) {
+            this.arguments = Arrays.copyOf(this.arguments, this.depth * 2);
+        }
+
+        var frame = this.arguments[this.depth];
+        if (frame == null) {
+            frame = new Arguments();
+            this.arguments[this.depth] = frame;
+        }
+
+        this.depth++;
+        frame.enter(names, inputs, ctx);
+        return frame;
+    }
+
+    void pop() {
+        this.arguments[--this.depth].leave();
+    }
+
+    // opens a scope for one evaluation of the program that owns it. every open must be followed by a close
+    void open(Object owner, EvaluationContext ctx, int slots) {
+        if (this.scopeDepth == this.scopes.length) {
+            this.scopes = Arrays.copyOf(this.scopes, this.scopeDepth * 2);
+        }
+
+        var scope = this.scopes[this.scopeDepth];
+        if (scope == null) {
+            scope = new Scope();
+            this.scopes[this.scopeDepth] = scope;
+        }
+
+        this.scopeDepth++;
+        scope.enter(owner, ctx, slots);
+    }
+
+    void close() {
+        this.scopes[--this.scopeDepth].leave();
+    }
+
+    // the slots of the innermost open evaluation of the owning program with the given context, or null if there is none
+    VValue[] slots(Object owner, EvaluationContext ctx) {
+        for (int i = this.scopeDepth - 1; i >= 0; i--) {
+            var scope = this.scopes[i];
+            if (scope.owner == owner) {
+                return scope.ctx == ctx ? scope.values : null;
+            }
+        }
+
+        return null;
+    }
+
+    private static final class Scope {
+        private Object owner;
+        private EvaluationContext ctx;
+        private VValue[] values = new VValue[0];
+        private int slots;
+
+        private void enter(Object owner, EvaluationContext ctx, int slots) {
+            this.owner = owner;
+            this.ctx = ctx;
+            this.slots = slots;
+            if (this.values.length < slots) {
+                this.values = new VValue[slots];
+            }
+        }
+
+        private void leave() {
+            Arrays.fill(this.values, 0, this.slots, null);
+            this.owner = null;
+            this.ctx = null;
+        }
+    }
+
+    // memoises inputs like the interpreter does, but without a map: the first three live in fields, the rest in an array
+    // that is kept between uses of the frame
+    static final class Arguments implements VFunctionDefinition.Inputs {
+        private static final VValue[] NO_VALUES = new VValue[0];
+
+        private String[] names;
+        private CompiledExpression[] inputs;
+        private EvaluationContext ctx;
+        private VValue first;
+        private VValue second;
+        private VValue third;
+        private VValue[] rest = NO_VALUES;
+
+        private void enter(String[] names, CompiledExpression[] inputs, EvaluationContext ctx) {
+            this.names = names;
+            this.inputs = inputs;
+            this.ctx = ctx;
+            if (inputs.length > 3 && this.rest.length < inputs.length - 3) {
+                this.rest = new VValue[inputs.length - 3];
+            }
+        }
+
+        // drops everything the frame refers to, so that it keeps nothing alive while it waits to be used again
+        private void leave() {
+            if (this.inputs.length > 3) {
+                Arrays.fill(this.rest, 0, this.inputs.length - 3, null);
+            }
+
+            this.names = null;
+            this.inputs = null;
+            this.ctx = null;
+            this.first = null;
+            this.second = null;
+            this.third = null;
+        }
+
+        @Override
+        public VValue get(String name) {
+            if (this.inputs == null) {
+                throw new IllegalStateException("Inputs cannot be used after the function they were passed to has returned");
+            }
+
+            int index = this.indexOf(name);
+            switch (index) {
+                case -1 -> throw new NoSuchElementException("No input with name " + name);
+                case 0 -> {
+                    if (this.first == null) {
+                        this.first = this.inputs[0].evaluate(this.ctx);
+                    }
+                    return this.first;
+                }
+                case 1 -> {
+                    if (this.second == null) {
+                        this.second = this.inputs[1].evaluate(this.ctx);
+                    }
+                    return this.second;
+                }
+                case 2 -> {
+                    if (this.third == null) {
+                        this.third = this.inputs[2].evaluate(this.ctx);
+                    }
+                    return this.third;
+                }
+                default -> {
+                    if (this.rest[index - 3] == null) {
+                        this.rest[index - 3] = this.inputs[index].evaluate(this.ctx);
+                    }
+                    return this.rest[index - 3];
+                }
+            }
+        }
+
+        private int indexOf(String name) {
+            var names = this.names;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == name) {
+                    return i;
+                }
+            }
+
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+}
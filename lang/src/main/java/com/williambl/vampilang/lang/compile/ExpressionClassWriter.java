@@ -0,0 +1,167 @@
+package com.williambl.vampilang.lang.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// a final class whose evaluate() calls a static final method handle taken from its class data. no branches, so no stack map frames
+final class ExpressionClassWriter {
+    private static final int CLASS_FILE_VERSION = 61;
+    private static final String HANDLE_DESCRIPTOR = "Ljava/lang/invoke/MethodHandle;";
+    private static final String EVALUATE_DESCRIPTOR = "(Lcom/williambl/vampilang/lang/EvaluationContext;)Lcom/williambl/vampilang/lang/VValue;";
+
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream(this.constantPoolBytes);
+    private final Map<List<Object>, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+
+    private ExpressionClassWriter() {
+    }
+
+    static byte[] write(String internalName) {
+        return new ExpressionClassWriter().writeClass(internalName);
+    }
+
+    private byte[] writeClass(String internalName) {
+        try {
+            int thisClass = this.classRef(internalName);
+            int superClass = this.classRef("java/lang/Object");
+            int interfaceClass = this.classRef("com/williambl/vampilang/lang/compile/CompiledExpression");
+            int handleField = this.memberRef(thisClass, "HANDLE", HANDLE_DESCRIPTOR);
+            int objectInit = this.memberRef(superClass, "<init>", "()V");
+            int lookup = this.memberRef(this.classRef("java/lang/invoke/MethodHandles"), "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+            int classData = this.memberRef(this.classRef("java/lang/invoke/MethodHandles"), "classData", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+            int handleClass = this.classRef("java/lang/invoke/MethodHandle");
+            int invokeExact = this.memberRef(handleClass, "invokeExact", EVALUATE_DESCRIPTOR);
+            int defaultName = this.constant(8, this.utf8("_"));
+            int code = this.utf8("Code");
+
+            var methods = new ArrayList<byte[]>();
+            methods.add(this.method(0x0001, "<init>", "()V", code, 1, 1, bytes(
+                    0x2A,
+                    0xB7, objectInit >> 8, objectInit,
+                    0xB1)));
+            methods.add(this.method(0x0008, "<clinit>", "()V", code, 3, 0, bytes(
+                    0xB8, lookup >> 8, lookup,
+                    0x13, defaultName >> 8, defaultName,
+                    0x13, handleClass >> 8, handleClass,
+                    0xB8, classData >> 8, classData,
+                    0xC0, handleClass >> 8, handleClass,
+                    0xB3, handleField >> 8, handleField,
+                    0xB1)));
+            methods.add(this.method(0x0001, "evaluate", EVALUATE_DESCRIPTOR, code, 2, 2, bytes(
+                    0xB2, handleField >> 8, handleField,
+                    0x2B,
+                    0xB6, invokeExact >> 8, invokeExact,
+                    0xB0)));
+            int fieldName = this.utf8("HANDLE");
+            int fieldDescriptor = this.utf8(HANDLE_DESCRIPTOR);
+
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            out.writeShort(this.constantCount);
+            this.constantPool.flush();
+            out.write(this.constantPoolBytes.toByteArray());
+            out.writeShort(0x0030); // final, super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(1);
+            out.writeShort(0x001A); // private, static, final
+            out.writeShort(fieldName);
+            out.writeShort(fieldDescriptor);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (var method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] method(int access, String name, String descriptor, int codeAttributeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+        int nameIndex = this.utf8(name);
+        int descriptorIndex = this.utf8(descriptor);
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1);
+        out.writeShort(codeAttributeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String value) throws IOException {
+        var key = List.<Object>of(1, value);
+        var existing = this.constants.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        this.constantPool.writeByte(1);
+        this.constantPool.writeUTF(value);
+        this.constants.put(key, this.constantCount);
+        return this.constantCount++;
+    }
+
+    private int classRef(String internalName) throws IOException {
+        return this.constant(7, this.utf8(internalName));
+    }
+
+    private int memberRef(int owner, String name, String descriptor) throws IOException {
+        int nameAndType = this.constant(12, this.utf8(name), this.utf8(descriptor));
+        return this.constant(descriptor.startsWith("(") ? 10 : 9, owner, nameAndType);
+    }
+
+    private int constant(int tag, int... indices) throws IOException {
+        var key = new ArrayList<Object>();
+        key.add(tag);
+        for (int index : indices) {
+            key.add(index);
+        }
+
+        var existing = this.constants.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        this.constantPool.writeByte(tag);
+        for (int index : indices) {
+            this.constantPool.writeShort(index);
+        }
+
+        this.constants.put(key, this.constantCount);
+        return this.constantCount++;
+    }
+
+    private static byte[] bytes(int... values) {
+        var bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,377 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+import com.williambl.vampilang.lang.type.ConstructableVType;
+import com.williambl.vampilang.lang.type.LambdaVType;
+import com.williambl.vampilang.lang.type.VType;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+public final class ExpressionCompiler {
+    private final Function<VExpression, CompiledExpression> childCompiler;
+    private final Set<VExpression> shared;
+    private final Map<VExpression, CompiledExpression> compiledShared = new IdentityHashMap<>();
+    private final Object owner = new Object();
+
+    ExpressionCompiler(@Nullable Function<VExpression, CompiledExpression> childCompiler, Set<VExpression> shared) {
+        this.childCompiler = childCompiler == null ? this::compileNode : childCompiler;
+        this.shared = shared;
+    }
+
+    public static CompiledExpression compile(VExpression expr) {
+        var compiler = new ExpressionCompiler(null, SubexpressionSharing.sharedNodes(expr));
+        var compiled = compiler.compileNode(expr);
+        return compiler.sharedSlots() == 0 ? compiled : new SharedExpression.Scoped(compiler.owner(), compiler.sharedSlots(), compiled);
+    }
+
+    CompiledExpression compileNode(VExpression expr) {
+        if (!this.shared.contains(expr)) {
+            return this.compileUnshared(expr);
+        }
+
+        var compiled = this.compiledShared.get(expr);
+        if (compiled == null) {
+            // compiled first, so that shared nodes inside it take their slots before this one does
+            var unshared = this.compileUnshared(expr);
+            compiled = new SharedExpression(this.owner, this.compiledShared.size(), unshared);
+            this.compiledShared.put(expr, compiled);
+        }
+
+        return compiled;
+    }
+
+    // what the scope around an evaluation of this compiler's nodes must be opened with
+    Object owner() {
+        return this.owner;
+    }
+
+    int sharedSlots() {
+        return this.compiledShared.size();
+    }
+
+    CompiledExpression compileUnshared(VExpression expr) {
+        if (expr instanceof VExpression.FunctionApplication app) {
+            if (app.resolvedSignature() == null) {
+                throw new UnsupportedOperationException("Cannot compile unresolved expression!");
+            }
+
+            var specialised = this.compileSpecialised(app);
+            if (specialised != null) {
+                return specialised;
+            }
+
+            var inputNames = app.function().signature().inputTypes().keySet().toArray(new String[0]);
+            var inputs = new CompiledExpression[inputNames.length];
+            for (int i = 0; i < inputNames.length; i++) {
+                var input = app.inputs().get(inputNames[i]);
+                if (input == null) {
+                    throw new UnsupportedOperationException("Missing input %s for function %s".formatted(inputNames[i], app.function().name()));
+                }
+
+                inputs[i] = this.childCompiler.apply(input);
+            }
+
+            return new FunctionApplication(app.function().function(), app.resolvedSignature(), inputNames, inputs);
+        } else if (expr instanceof VExpression.Value value) {
+            return new Value(value.value());
+        } else if (expr instanceof VExpression.VariableRef variableRef) {
+            return new VariableRef(variableRef.slot(), variableRef.name(), variableRef.type());
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            if (object.resolvedType() == null) {
+                throw new UnsupportedOperationException("Cannot compile unresolved expression!");
+            }
+
+            var propertyNames = object.properties().keySet().toArray(new String[0]);
+            var properties = new CompiledExpression[propertyNames.length];
+            for (int i = 0; i < propertyNames.length; i++) {
+                properties[i] = this.childCompiler.apply(object.properties().get(propertyNames[i]));
+            }
+
+            return new ObjectConstruction(object.resolvedType(), propertyNames, properties);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            if (list.resolvedType() == null) {
+                throw new UnsupportedOperationException("Cannot compile unresolved expression!");
+            }
+
+            var entries = new CompiledExpression[list.entries().size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = this.childCompiler.apply(list.entries().get(i));
+            }
+
+            return new ListConstruction(list.resolvedType(), entries);
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            return new Lambda(lambda.type(), lambda.expr());
+        }
+
+        throw new IllegalArgumentException("Unknown expression kind: " + expr.getClass());
+    }
+
+    private @Nullable CompiledExpression compileSpecialised(VExpression.FunctionApplication app) {
+        var type = app.resolvedSignature().outputType();
+        var specialisation = app.function().specialisation();
+        if (specialisation instanceof VFunctionDefinition.Specialisation.DoubleUnary unary) {
+            return new DoubleUnaryApplication(type, unary.operator(), this.compileDouble(input(app, unary.operand())));
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.DoubleBinary binary) {
+            return new DoubleBinaryApplication(type, binary.operator(), this.compileDouble(input(app, binary.a())), this.compileDouble(input(app, binary.b())));
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.DoubleComparison comparison) {
+            return new DoubleComparisonApplication(type, comparison.predicate(), this.compileDouble(input(app, comparison.a())), this.compileDouble(input(app, comparison.b())));
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.BooleanUnary unary) {
+            return new BooleanUnaryApplication(type, unary.operator(), this.compileBoolean(input(app, unary.operand())));
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction list) {
+            var operands = new BooleanExpression[list.entries().size()];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = this.compileBoolean(list.entries().get(i));
+            }
+
+            return new ShortCircuitApplication(type, shortCircuit.decisive(), operands);
+        } else if (specialisation instanceof VFunctionDefinition.Specialisation.Conditional conditional) {
+            return new ConditionalApplication(this.compileBoolean(input(app, conditional.predicate())), this.childCompiler.apply(input(app, conditional.ifTrue())), this.childCompiler.apply(input(app, conditional.ifFalse())));
+        }
+
+        return null;
+    }
+
+    private DoubleExpression compileDouble(VExpression expr) {
+        if (this.shared.contains(expr)) {
+            return new UnboxedDouble(this.childCompiler.apply(expr));
+        } else if (expr instanceof VExpression.FunctionApplication app && app.resolvedSignature() != null && isDoubleSpecialised(app)) {
+            return (DoubleExpression) Objects.requireNonNull(this.compileSpecialised(app));
+        } else if (expr instanceof VExpression.Value value && value.value().value() instanceof Number number) {
+            return new DoubleConstant(value.value(), number.doubleValue());
+        }
+
+        return new UnboxedDouble(this.childCompiler.apply(expr));
+    }
+
+    private BooleanExpression compileBoolean(VExpression expr) {
+        if (this.shared.contains(expr)) {
+            return new UnboxedBoolean(this.childCompiler.apply(expr));
+        } else if (expr instanceof VExpression.FunctionApplication app && app.resolvedSignature() != null && isBooleanSpecialised(app)) {
+            return (BooleanExpression) Objects.requireNonNull(this.compileSpecialised(app));
+        } else if (expr instanceof VExpression.Value value && value.value().value() instanceof Boolean bool) {
+            return new BooleanConstant(value.value(), bool);
+        }
+
+        return new UnboxedBoolean(this.childCompiler.apply(expr));
+    }
+
+    // whether compileSpecialised gives a primitive node for the application. checked first, as compiling a specialisation
+    // that turns out not to be primitive and then compiling the application again would repeat the work for every level
+    private static boolean isDoubleSpecialised(VExpression.FunctionApplication app) {
+        var specialisation = app.function().specialisation();
+        return specialisation instanceof VFunctionDefinition.Specialisation.DoubleUnary
+                || specialisation instanceof VFunctionDefinition.Specialisation.DoubleBinary;
+    }
+
+    private static boolean isBooleanSpecialised(VExpression.FunctionApplication app) {
+        var specialisation = app.function().specialisation();
+        return specialisation instanceof VFunctionDefinition.Specialisation.DoubleComparison
+                || specialisation instanceof VFunctionDefinition.Specialisation.BooleanUnary
+                || specialisation instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction;
+    }
+
+    private static VExpression input(VExpression.FunctionApplication app, String name) {
+        var input = app.inputs().get(name);
+        if (input == null) {
+            throw new UnsupportedOperationException("Missing input %s for function %s".formatted(name, app.function().name()));
+        }
+
+        return input;
+    }
+
+    private record FunctionApplication(VFunctionDefinition.Func function, VFunctionSignature signature, String[] names, CompiledExpression[] inputs) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            var frames = EvaluationFrames.get();
+            var arguments = frames.push(this.names, this.inputs, ctx);
+            try {
+                return this.function.apply(ctx, this.signature, arguments);
+            } finally {
+                frames.pop();
+            }
+        }
+    }
+
+    private interface DoubleExpression extends CompiledExpression {
+        double evaluateDouble(EvaluationContext ctx);
+    }
+
+    private interface BooleanExpression extends CompiledExpression {
+        boolean evaluateBoolean(EvaluationContext ctx);
+    }
+
+    private record DoubleUnaryApplication(VType type, DoubleUnaryOperator operator, DoubleExpression operand) implements DoubleExpression {
+        @Override
+        public double evaluateDouble(EvaluationContext ctx) {
+            return this.operator.applyAsDouble(this.operand.evaluateDouble(ctx));
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return VValue.trusted(this.type, this.evaluateDouble(ctx), ctx.env());
+        }
+    }
+
+    private record DoubleBinaryApplication(VType type, DoubleBinaryOperator operator, DoubleExpression a, DoubleExpression b) implements DoubleExpression {
+        @Override
+        public double evaluateDouble(EvaluationContext ctx) {
+            return this.operator.applyAsDouble(this.a.evaluateDouble(ctx), this.b.evaluateDouble(ctx));
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return VValue.trusted(this.type, this.evaluateDouble(ctx), ctx.env());
+        }
+    }
+
+    private record DoubleComparisonApplication(VType type, VFunctionDefinition.Specialisation.DoubleBiPredicate predicate, DoubleExpression a, DoubleExpression b) implements BooleanExpression {
+        @Override
+        public boolean evaluateBoolean(EvaluationContext ctx) {
+            return this.predicate.test(this.a.evaluateDouble(ctx), this.b.evaluateDouble(ctx));
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return VValue.trusted(this.type, this.evaluateBoolean(ctx), ctx.env());
+        }
+    }
+
+    private record BooleanUnaryApplication(VType type, VFunctionDefinition.Specialisation.BooleanUnaryOperator operator, BooleanExpression operand) implements BooleanExpression {
+        @Override
+        public boolean evaluateBoolean(EvaluationContext ctx) {
+            return this.operator.applyAsBoolean(this.operand.evaluateBoolean(ctx));
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return VValue.trusted(this.type, this.evaluateBoolean(ctx), ctx.env());
+        }
+    }
+
+    private record ShortCircuitApplication(VType type, boolean decisive, BooleanExpression[] operands) implements BooleanExpression {
+        @Override
+        public boolean evaluateBoolean(EvaluationContext ctx) {
+            for (var operand : this.operands) {
+                if (operand.evaluateBoolean(ctx) == this.decisive) {
+                    return this.decisive;
+                }
+            }
+
+            return !this.decisive;
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return VValue.trusted(this.type, this.evaluateBoolean(ctx), ctx.env());
+        }
+    }
+
+    private record ConditionalApplication(BooleanExpression predicate, CompiledExpression ifTrue, CompiledExpression ifFalse) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return this.predicate.evaluateBoolean(ctx) ? this.ifTrue.evaluate(ctx) : this.ifFalse.evaluate(ctx);
+        }
+    }
+
+    private record DoubleConstant(VValue value, double number) implements DoubleExpression {
+        @Override
+        public double evaluateDouble(EvaluationContext ctx) {
+            return this.number;
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return this.value;
+        }
+    }
+
+    private record BooleanConstant(VValue value, boolean bool) implements BooleanExpression {
+        @Override
+        public boolean evaluateBoolean(EvaluationContext ctx) {
+            return this.bool;
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return this.value;
+        }
+    }
+
+    private record UnboxedDouble(CompiledExpression expr) implements DoubleExpression {
+        @Override
+        public double evaluateDouble(EvaluationContext ctx) {
+            return ((Number) this.expr.evaluate(ctx).value()).doubleValue();
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return this.expr.evaluate(ctx);
+        }
+    }
+
+    private record UnboxedBoolean(CompiledExpression expr) implements BooleanExpression {
+        @Override
+        public boolean evaluateBoolean(EvaluationContext ctx) {
+            return (Boolean) this.expr.evaluate(ctx).value();
+        }
+
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return this.expr.evaluate(ctx);
+        }
+    }
+
+    private record Value(VValue value) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return this.value;
+        }
+    }
+
+    private record VariableRef(int slot, String name, VType type) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return ctx.getVariable(this.slot, this.name, this.type);
+        }
+    }
+
+    private record ObjectConstruction(ConstructableVType<?> type, String[] names, CompiledExpression[] properties) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            var propertiesValues = new HashMap<String, VValue>(this.names.length * 2);
+            for (int i = 0; i < this.names.length; i++) {
+                propertiesValues.put(this.names[i], this.properties[i].evaluate(ctx));
+            }
+
+            return VValue.trusted(this.type, this.type.constructor.apply(propertiesValues), ctx.env());
+        }
+    }
+
+    private record ListConstruction(VType type, CompiledExpression[] entries) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            var values = new VValue[this.entries.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = this.entries[i].evaluate(ctx);
+            }
+
+            return VValue.trusted(this.type, List.of(values), ctx.env());
+        }
+    }
+
+    private record Lambda(LambdaVType type, VExpression expr) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            return VValue.trusted(this.type, this.expr, ctx.env());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+import com.williambl.vampilang.lang.type.VType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public final class HiddenClassCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final byte[] CLASS_BYTES = ExpressionClassWriter.write("com/williambl/vampilang/lang/compile/GeneratedExpression");
+    private static final MethodType EXPRESSION_TYPE = MethodType.methodType(VValue.class, EvaluationContext.class);
+    private static final MethodHandle EVALUATE;
+    private static final MethodHandle GET_VARIABLE;
+    private static final MethodHandle VALUE_OF;
+    private static final MethodHandle WRAP;
+
+    static {
+        try {
+            EVALUATE = LOOKUP.findVirtual(CompiledExpression.class, "evaluate", EXPRESSION_TYPE);
+            GET_VARIABLE = LOOKUP.findVirtual(EvaluationContext.class, "getVariable", MethodType.methodType(VValue.class, int.class, String.class, VType.class));
+            VALUE_OF = LOOKUP.findVirtual(VValue.class, "value", MethodType.methodType(Object.class));
+            WRAP = LOOKUP.findStatic(HiddenClassCompiler.class, "wrap", MethodType.methodType(VValue.class, VType.class, Object.class, EvaluationContext.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Set<VExpression> shared;
+    private final Map<VExpression, MethodHandle> sharedHandles = new IdentityHashMap<>();
+    private final Object owner = new Object();
+
+    private HiddenClassCompiler(Set<VExpression> shared) {
+        this.shared = shared;
+    }
+
+    public static CompiledExpression compile(VExpression expr) {
+        var compiler = new HiddenClassCompiler(SubexpressionSharing.sharedNodes(expr));
+        var handle = compiler.handleFor(expr);
+        if (!compiler.sharedHandles.isEmpty()) {
+            handle = EVALUATE.bindTo(new SharedExpression.Scoped(compiler.owner, compiler.sharedHandles.size(), new HandleExpression(handle)));
+        }
+
+        try {
+            // no ClassOption.STRONG, so the class can be unloaded as soon as the returned expression is unreachable
+            var hiddenClass = LOOKUP.defineHiddenClassWithClassData(CLASS_BYTES, handle, true);
+            return (CompiledExpression) hiddenClass.findConstructor(hiddenClass.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define class for expression", e);
+        }
+    }
+
+    private MethodHandle handleFor(VExpression expr) {
+        if (!this.shared.contains(expr)) {
+            return this.unsharedHandleFor(expr);
+        }
+
+        var handle = this.sharedHandles.get(expr);
+        if (handle == null) {
+            // made first, so that shared nodes inside it take their slots before this one does
+            var unshared = new HandleExpression(this.unsharedHandleFor(expr));
+            handle = EVALUATE.bindTo(new SharedExpression(this.owner, this.sharedHandles.size(), unshared));
+            this.sharedHandles.put(expr, handle);
+        }
+
+        return handle;
+    }
+
+    private MethodHandle unsharedHandleFor(VExpression expr) {
+        if (expr instanceof VExpression.FunctionApplication app && app.resolvedSignature() != null && app.function().intrinsic() != null) {
+            var raw = this.unsharedRawHandleFor(app).asType(MethodType.methodType(Object.class, EvaluationContext.class));
+            var wrap = MethodHandles.filterArguments(MethodHandles.insertArguments(WRAP, 0, app.resolvedSignature().outputType()), 0, raw);
+            return MethodHandles.permuteArguments(wrap, EXPRESSION_TYPE, 0, 0);
+        } else if (expr instanceof VExpression.Value value) {
+            return MethodHandles.dropArguments(MethodHandles.constant(VValue.class, value.value()), 0, EvaluationContext.class);
+        } else if (expr instanceof VExpression.VariableRef variableRef) {
+            return MethodHandles.insertArguments(GET_VARIABLE, 1, variableRef.slot(), variableRef.name(), variableRef.type());
+        }
+
+        var node = new ExpressionCompiler(child -> new HandleExpression(this.handleFor(child)), this.shared).compileUnshared(expr);
+        return EVALUATE.bindTo(node);
+    }
+
+    // the unwrapped value of an expression, without boxing it into a VValue if the expression is an intrinsic
+    private MethodHandle rawHandleFor(VExpression expr) {
+        return this.shared.contains(expr) ? MethodHandles.filterReturnValue(this.handleFor(expr), VALUE_OF) : this.unsharedRawHandleFor(expr);
+    }
+
+    private MethodHandle unsharedRawHandleFor(VExpression expr) {
+        if (expr instanceof VExpression.FunctionApplication app && app.resolvedSignature() != null && app.function().intrinsic() != null) {
+            var intrinsic = app.function().intrinsic();
+            var target = intrinsic.handle();
+            if (intrinsic.inputs().isEmpty()) {
+                return MethodHandles.dropArguments(target, 0, EvaluationContext.class);
+            }
+
+            var inputs = new MethodHandle[intrinsic.inputs().size()];
+            for (int i = 0; i < inputs.length; i++) {
+                var input = app.inputs().get(intrinsic.inputs().get(i));
+                inputs[i] = this.rawHandleFor(input).asType(MethodType.methodType(target.type().parameterType(i), EvaluationContext.class));
+            }
+
+            return MethodHandles.permuteArguments(
+                    MethodHandles.filterArguments(target, 0, inputs),
+                    MethodType.methodType(target.type().returnType(), EvaluationContext.class),
+                    new int[inputs.length]);
+        } else if (expr instanceof VExpression.Value value) {
+            return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value.value().value()), 0, EvaluationContext.class);
+        }
+
+        return MethodHandles.filterReturnValue(this.handleFor(expr), VALUE_OF);
+    }
+
+    private static VValue wrap(VType type, Object value, EvaluationContext ctx) {
+        return VValue.trusted(type, value, ctx.env());
+    }
+
+    private record HandleExpression(MethodHandle handle) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            try {
+                return (VValue) this.handle.invokeExact(ctx);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
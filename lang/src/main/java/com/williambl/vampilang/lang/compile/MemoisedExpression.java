@@ -0,0 +1,111 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VEnvironment;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+// caches the results of an expression by the values of the context variables it refers to, including inside lambdas but
+// not the variables lambdas bind themselves. only expressions in which every function is pure are cached; anything else
+// is just evaluated. the cache is bounded, and evicts the least recently used results first
+public final class MemoisedExpression implements CompiledExpression {
+    private final CompiledExpression expr;
+    private final VExpression.VariableRef[] variables;
+    private final @Nullable Cache<Key, VValue> cache;
+
+    private MemoisedExpression(CompiledExpression expr, VExpression.VariableRef[] variables, @Nullable Cache<Key, VValue> cache) {
+        this.expr = expr;
+        this.variables = variables;
+        this.cache = cache;
+    }
+
+    public static MemoisedExpression of(VExpression expr, long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive, but was " + maximumSize);
+        }
+
+        var variables = new TreeMap<String, VExpression.VariableRef>();
+        collect(expr, variables, List.of());
+        return new MemoisedExpression(
+                expr.compile(),
+                variables.values().toArray(VExpression.VariableRef[]::new),
+                SubexpressionSharing.isPure(expr) ? CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build() : null);
+    }
+
+    // the variables the expression reads from the context it is evaluated in, leaving out those bound by enclosing lambdas
+    private static void collect(VExpression expr, Map<String, VExpression.VariableRef> variables, List<EvaluationContext.Spec> lambdaSpecs) {
+        if (expr instanceof VExpression.VariableRef variableRef) {
+            if (lambdaSpecs.stream().noneMatch(spec -> spec.nullableTypeOf(variableRef.name()) != null)) {
+                variables.putIfAbsent(variableRef.name(), variableRef);
+            }
+        } else if (expr instanceof VExpression.FunctionApplication app) {
+            for (var input : app.inputs().values()) {
+                collect(input, variables, lambdaSpecs);
+            }
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            for (var entry : list.entries()) {
+                collect(entry, variables, lambdaSpecs);
+            }
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            for (var property : object.properties().values()) {
+                collect(property, variables, lambdaSpecs);
+            }
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            var inner = new ArrayList<>(lambdaSpecs);
+            inner.add(lambda.type().specToMerge());
+            collect(lambda.expr(), variables, inner);
+        }
+    }
+
+    @Override
+    public VValue evaluate(EvaluationContext ctx) {
+        if (this.cache == null) {
+            return this.expr.evaluate(ctx);
+        }
+
+        var values = new VValue[this.variables.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = this.variables[i].evaluate(ctx);
+            } catch (NoSuchElementException e) {
+                // the expression may not need every variable, so leave it to decide whether one is missing
+                return this.expr.evaluate(ctx);
+            }
+        }
+
+        var key = new Key(ctx.env(), List.of(values));
+        var cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var value = this.expr.evaluate(ctx);
+        this.cache.put(key, value);
+        return value;
+    }
+
+    public boolean isMemoised() {
+        return this.cache != null;
+    }
+
+    public CacheStatistics statistics() {
+        if (this.cache == null) {
+            return new CacheStatistics(0, 0, 0);
+        }
+
+        var stats = this.cache.stats();
+        return new CacheStatistics(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    public record CacheStatistics(long hits, long misses, long evictions) {
+    }
+
+    private record Key(VEnvironment env, List<VValue> values) {
+    }
+}
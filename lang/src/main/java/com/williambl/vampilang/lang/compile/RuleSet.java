@@ -0,0 +1,93 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+
+import java.util.*;
+
+// evaluates many boolean rules against the same context. structurally identical pure subexpressions are merged across
+// all the rules, and each merged node is evaluated at most once per call however many rules use it
+public final class RuleSet<K> {
+    private final List<K> keys;
+    private final Map<K, Integer> indices = new HashMap<>();
+    private final CompiledExpression[] rules;
+    private final int sharedNodeCount;
+    private final Object owner;
+    private final int sharedSlots;
+
+    public RuleSet(Map<K, VExpression> rules) {
+        this.keys = List.copyOf(rules.keySet());
+        for (int i = 0; i < this.keys.size(); i++) {
+            this.indices.put(this.keys.get(i), i);
+        }
+
+        var merged = SubexpressionSharing.shareAll(this.keys.stream().map(rules::get).toList());
+        var shared = SubexpressionSharing.sharedNodes(merged);
+        // one compiler, so that rules using a merged node get the same compiled instance of it
+        var compiler = new ExpressionCompiler(null, shared);
+        this.rules = merged.stream().map(compiler::compileNode).toArray(CompiledExpression[]::new);
+        this.sharedNodeCount = shared.size();
+        this.owner = compiler.owner();
+        this.sharedSlots = compiler.sharedSlots();
+    }
+
+    // the keys of the rules that evaluated to true, in the order the rules were given
+    public Set<K> evaluate(EvaluationContext ctx) {
+        var matched = new LinkedHashSet<K>();
+        var frames = EvaluationFrames.get();
+        frames.open(this.owner, ctx, this.sharedSlots);
+        try {
+            for (int i = 0; i < this.rules.length; i++) {
+                if (this.matches(i, ctx)) {
+                    matched.add(this.keys.get(i));
+                }
+            }
+        } finally {
+            frames.close();
+        }
+
+        return matched;
+    }
+
+    // as evaluate, but only evaluating the given rules, in the order they are given
+    public Set<K> evaluate(EvaluationContext ctx, Collection<K> candidates) {
+        var matched = new LinkedHashSet<K>();
+        var frames = EvaluationFrames.get();
+        frames.open(this.owner, ctx, this.sharedSlots);
+        try {
+            for (var key : candidates) {
+                var index = this.indices.get(key);
+                if (index == null) {
+                    throw new NoSuchElementException("No rule with key " + key);
+                }
+
+                if (this.matches(index, ctx)) {
+                    matched.add(key);
+                }
+            }
+        } finally {
+            frames.close();
+        }
+
+        return matched;
+    }
+
+    private boolean matches(int rule, EvaluationContext ctx) {
+        var result = this.rules[rule].evaluate(ctx).value();
+        if (!(result instanceof Boolean matches)) {
+            throw new IllegalStateException("Rule %s evaluated to %s, not a boolean".formatted(this.keys.get(rule), result));
+        }
+
+        return matches;
+    }
+
+    public int size() {
+        return this.rules.length;
+    }
+
+    // how many nodes are used by more than one rule, or more than once within a rule
+    public int sharedNodeCount() {
+        return this.sharedNodeCount;
+    }
+}
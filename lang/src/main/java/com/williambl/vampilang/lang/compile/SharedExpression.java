@@ -0,0 +1,48 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VValue;
+
+// a node used in more than one place. its value is kept in its slot of the current evaluation's scope, so it is worked
+// out at most once per evaluation. outside an evaluation of the program that owns it, it is just evaluated
+final class SharedExpression implements CompiledExpression {
+    private final Object owner;
+    private final int slot;
+    private final CompiledExpression expr;
+
+    SharedExpression(Object owner, int slot, CompiledExpression expr) {
+        this.owner = owner;
+        this.slot = slot;
+        this.expr = expr;
+    }
+
+    @Override
+    public VValue evaluate(EvaluationContext ctx) {
+        var slots = EvaluationFrames.get().slots(this.owner, ctx);
+        if (slots == null) {
+            return this.expr.evaluate(ctx);
+        }
+
+        var value = slots[this.slot];
+        if (value == null) {
+            value = this.expr.evaluate(ctx);
+            slots[this.slot] = value;
+        }
+
+        return value;
+    }
+
+    // evaluates the root of a program with shared nodes, opening a scope for them around it
+    record Scoped(Object owner, int slots, CompiledExpression expr) implements CompiledExpression {
+        @Override
+        public VValue evaluate(EvaluationContext ctx) {
+            var frames = EvaluationFrames.get();
+            frames.open(this.owner, ctx, this.slots);
+            try {
+                return this.expr.evaluate(ctx);
+            } finally {
+                frames.close();
+            }
+        }
+    }
+}
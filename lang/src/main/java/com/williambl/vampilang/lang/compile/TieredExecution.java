@@ -0,0 +1,60 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+public final class TieredExecution {
+    private final int threshold;
+    private final Executor executor;
+    private final Function<VExpression, CompiledExpression> compiler;
+
+    public TieredExecution(int threshold) {
+        this(threshold, ForkJoinPool.commonPool());
+    }
+
+    public TieredExecution(int threshold, Executor executor) {
+        this(threshold, executor, expr -> HiddenClassCompiler.compile(SubexpressionSharing.share(expr)));
+    }
+
+    public TieredExecution(int threshold, Executor executor, Function<VExpression, CompiledExpression> compiler) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+
+        this.threshold = threshold;
+        this.executor = executor;
+        this.compiler = compiler;
+    }
+
+    public TieredExpression manage(VExpression expr) {
+        return new TieredExpression(this, expr);
+    }
+
+    int threshold() {
+        return this.threshold;
+    }
+
+    // false if the executor would not take the compilation, in which case the expression keeps being interpreted
+    boolean promote(TieredExpression expr) {
+        try {
+            this.executor.execute(() -> {
+                CompiledExpression compiled;
+                try {
+                    compiled = this.compiler.apply(expr.expression());
+                } catch (RuntimeException e) {
+                    compiled = expr.expression()::evaluate;
+                }
+
+                expr.promoted(compiled);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.williambl.vampilang.lang.compile;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// interprets its expression until it has been evaluated threshold times, then keeps interpreting while a compiled
+// form is made on the manager's executor, and switches to that once it is ready. if the executor turns the compilation
+// down, it is tried again after another threshold evaluations
+public final class TieredExpression implements CompiledExpression {
+    private final TieredExecution manager;
+    private final VExpression expr;
+    private final AtomicInteger invocations = new AtomicInteger();
+    private volatile int nextPromotion;
+    private volatile @Nullable CompiledExpression compiled;
+
+    TieredExpression(TieredExecution manager, VExpression expr) {
+        this.manager = manager;
+        this.expr = expr;
+        this.nextPromotion = manager.threshold();
+    }
+
+    @Override
+    public VValue evaluate(EvaluationContext ctx) {
+        var compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.evaluate(ctx);
+        }
+
+        int invocations = this.invocations.incrementAndGet();
+        if (invocations == this.nextPromotion && !this.manager.promote(this)) {
+            this.nextPromotion = invocations + this.manager.threshold();
+        }
+
+        return this.expr.evaluate(ctx);
+    }
+
+    public VExpression expression() {
+        return this.expr;
+    }
+
+    public int interpretedInvocations() {
+        return this.invocations.get();
+    }
+
+    public boolean isPromoted() {
+        return this.compiled != null;
+    }
+
+    void promoted(CompiledExpression compiled) {
+        this.compiled = compiled;
+    }
+}
@@ -0,0 +1,173 @@
+package com.williambl.vampilang.lang.evaluation;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+// evaluates without waiting on async functions. subtrees containing no async functions are evaluated synchronously, as
+// normal. inputs of a function application which contain async functions are all started at once on the executor, and
+// the function is called once they have completed; its other inputs are evaluated when it asks for them. conditionals
+// and short-circuiting operators still only start the inputs they need. lambda bodies are evaluated synchronously
+public final class AsyncEvaluator {
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+    private final EvaluationContext ctx;
+    private final Executor executor;
+    private final Set<VExpression> async;
+
+    private AsyncEvaluator(EvaluationContext ctx, Executor executor, Set<VExpression> async) {
+        this.ctx = ctx;
+        this.executor = executor;
+        this.async = async;
+    }
+
+    public static CompletableFuture<VValue> evaluateAsync(VExpression expr, EvaluationContext ctx) {
+        return evaluateAsync(expr, ctx, DEFAULT_EXECUTOR);
+    }
+
+    public static CompletableFuture<VValue> evaluateAsync(VExpression expr, EvaluationContext ctx, Executor executor) {
+        Set<VExpression> async = Collections.newSetFromMap(new IdentityHashMap<>());
+        findAsync(expr, async);
+        return new AsyncEvaluator(ctx, executor, async).evaluate(expr);
+    }
+
+    // one virtual thread per task where the runtime has them, otherwise a cached pool of daemon threads
+    private static Executor createDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                var thread = new Thread(runnable, "vampilang-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static boolean findAsync(VExpression expr, Set<VExpression> async) {
+        boolean found = false;
+        if (expr instanceof VExpression.FunctionApplication app) {
+            found = app.function().async() != null;
+            for (var input : app.inputs().values()) {
+                found |= findAsync(input, async);
+            }
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            for (var entry : list.entries()) {
+                found |= findAsync(entry, async);
+            }
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            for (var property : object.properties().values()) {
+                found |= findAsync(property, async);
+            }
+        }
+
+        if (found) {
+            async.add(expr);
+        }
+
+        return found;
+    }
+
+    private CompletableFuture<VValue> evaluate(VExpression expr) {
+        if (!this.async.contains(expr)) {
+            try {
+                return CompletableFuture.completedFuture(expr.evaluate(this.ctx));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        if (expr instanceof VExpression.FunctionApplication app) {
+            if (app.resolvedSignature() == null) {
+                return CompletableFuture.failedFuture(new UnsupportedOperationException("Cannot evaluate unresolved expression!"));
+            }
+
+            if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction operands) {
+                return this.evaluateShortCircuit(app, shortCircuit.decisive(), operands.entries(), 0);
+            } else if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.Conditional conditional) {
+                return this.evaluate(app.inputs().get(conditional.predicate()))
+                        .thenCompose(predicate -> this.evaluate(app.inputs().get((Boolean) predicate.value() ? conditional.ifTrue() : conditional.ifFalse())));
+            }
+
+            return this.evaluateApplication(app);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            var entries = list.entries().stream().map(this::start).toList();
+            return CompletableFuture.allOf(entries.toArray(CompletableFuture[]::new))
+                    .thenApply($ -> VValue.trusted(list.resolvedType(), entries.stream().map(CompletableFuture::join).toList(), this.ctx.env()));
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            if (object.resolvedType() == null) {
+                return CompletableFuture.failedFuture(new UnsupportedOperationException("Cannot evaluate unresolved expression!"));
+            }
+
+            var properties = new HashMap<String, CompletableFuture<VValue>>();
+            object.properties().forEach((name, property) -> properties.put(name, this.start(property)));
+            return CompletableFuture.allOf(properties.values().toArray(CompletableFuture[]::new)).thenApply($ -> {
+                var values = new HashMap<String, VValue>();
+                properties.forEach((name, value) -> values.put(name, value.join()));
+                return VValue.trusted(object.resolvedType(), object.resolvedType().constructor.apply(values), this.ctx.env());
+            });
+        }
+
+        return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown expression kind: " + expr.getClass()));
+    }
+
+    private CompletableFuture<VValue> evaluateApplication(VExpression.FunctionApplication app) {
+        var started = new HashMap<String, CompletableFuture<VValue>>();
+        app.inputs().forEach((name, input) -> {
+            if (this.async.contains(input)) {
+                started.put(name, this.start(input));
+            }
+        });
+
+        var evaluated = new HashMap<String, VValue>();
+        VFunctionDefinition.Inputs inputs = name -> evaluated.computeIfAbsent(name, k -> {
+            var future = started.get(k);
+            return future == null ? app.inputs().get(k).evaluate(this.ctx) : join(future);
+        });
+
+        // failed inputs are only rethrown if the function asks for them
+        return CompletableFuture.allOf(started.values().toArray(CompletableFuture[]::new))
+                .handle((result, e) -> null)
+                .thenComposeAsync($ -> app.function().async() == null
+                        ? CompletableFuture.completedFuture(app.function().function().apply(this.ctx, app.resolvedSignature(), inputs))
+                        : app.function().async().apply(this.ctx, app.resolvedSignature(), inputs), this.executor);
+    }
+
+    private CompletableFuture<VValue> evaluateShortCircuit(VExpression.FunctionApplication app, boolean decisive, List<VExpression> operands, int index) {
+        if (index == operands.size()) {
+            return CompletableFuture.completedFuture(VValue.trusted(app.resolvedSignature().outputType(), !decisive, this.ctx.env()));
+        }
+
+        return this.evaluate(operands.get(index)).thenCompose(operand -> (Boolean) operand.value() == decisive
+                ? CompletableFuture.completedFuture(VValue.trusted(app.resolvedSignature().outputType(), decisive, this.ctx.env()))
+                : this.evaluateShortCircuit(app, decisive, operands, index + 1));
+    }
+
+    private CompletableFuture<VValue> start(VExpression expr) {
+        if (!this.async.contains(expr)) {
+            return this.evaluate(expr);
+        }
+
+        return CompletableFuture.supplyAsync(() -> this.evaluate(expr), this.executor).thenCompose(Function.identity());
+    }
+
+    private static VValue join(CompletableFuture<VValue> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.williambl.vampilang.lang.evaluation;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VEnvironment;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.compile.CompiledExpression;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// evaluates a compiled expression for each item from upstream, for a single subscriber. demand from the subscriber is
+// passed upstream as it arrives, so at most that many items are ever held. items are evaluated and delivered in runs by
+// whichever thread finds work waiting, so a burst of items is drained in one go rather than handing off per item
+public final class ExpressionProcessor<T> implements Flow.Processor<T, VValue> {
+    private final CompiledExpression expr;
+    private final Function<T, EvaluationContext> contextOf;
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong unforwarded = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile Flow.@Nullable Subscription upstream;
+    private volatile Flow.@Nullable Subscriber<? super VValue> downstream;
+    private volatile boolean done;
+    private volatile @Nullable Throwable error;
+    // set by a request for a non-positive number of items, which ends the stream before anything else is delivered
+    private volatile @Nullable Throwable invalidRequest;
+    private volatile boolean cancelled;
+
+    private ExpressionProcessor(VExpression expr, Function<T, EvaluationContext> contextOf) {
+        this.expr = expr.compile();
+        this.contextOf = contextOf;
+    }
+
+    public static ExpressionProcessor<EvaluationContext> forContexts(VExpression expr) {
+        return new ExpressionProcessor<>(expr, Function.identity());
+    }
+
+    public static ExpressionProcessor<Map<String, VValue>> forVariables(VExpression expr, VEnvironment env) {
+        return new ExpressionProcessor<>(expr, variables -> new EvaluationContext(variables, env));
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super VValue> subscriber) {
+        synchronized (this) {
+            if (this.downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Expression processors only allow one subscriber"));
+                return;
+            }
+
+            this.downstream = subscriber;
+        }
+
+        subscriber.onSubscribe(new Downstream());
+        this.drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.upstream != null || this.cancelled) {
+            subscription.cancel();
+            return;
+        }
+
+        this.upstream = subscription;
+        this.forward();
+    }
+
+    @Override
+    public void onNext(T item) {
+        this.queue.offer(item);
+        this.drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.error = throwable;
+        this.done = true;
+        this.drain();
+    }
+
+    @Override
+    public void onComplete() {
+        this.done = true;
+        this.drain();
+    }
+
+    private void forward() {
+        var upstream = this.upstream;
+        if (upstream != null) {
+            long n = this.unforwarded.getAndSet(0);
+            if (n > 0) {
+                upstream.request(n);
+            }
+        }
+    }
+
+    private void cancelUpstream() {
+        var upstream = this.upstream;
+        if (upstream != null) {
+            upstream.cancel();
+        }
+    }
+
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            var subscriber = this.downstream;
+            if (subscriber != null) {
+                long requested = this.requested.get();
+                long emitted = 0;
+                while (true) {
+                    if (this.cancelled) {
+                        this.queue.clear();
+                        return;
+                    }
+
+                    var invalidRequest = this.invalidRequest;
+                    if (invalidRequest != null) {
+                        this.cancelled = true;
+                        this.queue.clear();
+                        subscriber.onError(invalidRequest);
+                        return;
+                    }
+
+                    // read done before polling, so an empty queue really means there is nothing more to come
+                    boolean done = this.done;
+                    if (done && this.queue.isEmpty()) {
+                        this.cancelled = true;
+                        var error = this.error;
+                        if (error == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError(error);
+                        }
+
+                        return;
+                    }
+
+                    if (emitted == requested) {
+                        break;
+                    }
+
+                    var item = this.queue.poll();
+                    if (item == null) {
+                        break;
+                    }
+
+                    VValue result;
+                    try {
+                        result = this.expr.evaluate(this.contextOf.apply(item));
+                    } catch (RuntimeException e) {
+                        this.cancelled = true;
+                        this.cancelUpstream();
+                        this.queue.clear();
+                        subscriber.onError(e);
+                        return;
+                    }
+
+                    subscriber.onNext(result);
+                    emitted++;
+                }
+
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    this.requested.addAndGet(-emitted);
+                }
+            }
+
+            missed = this.wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static void addCapped(AtomicLong counter, long n) {
+        counter.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+    }
+
+    private final class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                ExpressionProcessor.this.invalidRequest = new IllegalArgumentException("Requested a non-positive number of items: " + n);
+                ExpressionProcessor.this.cancelUpstream();
+                ExpressionProcessor.this.drain();
+                return;
+            }
+
+            addCapped(ExpressionProcessor.this.requested, n);
+            addCapped(ExpressionProcessor.this.unforwarded, n);
+            ExpressionProcessor.this.forward();
+            ExpressionProcessor.this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            ExpressionProcessor.this.cancelled = true;
+            ExpressionProcessor.this.cancelUpstream();
+            ExpressionProcessor.this.drain();
+        }
+    }
+}
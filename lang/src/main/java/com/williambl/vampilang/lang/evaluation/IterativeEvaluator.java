@@ -0,0 +1,254 @@
+package com.williambl.vampilang.lang.evaluation;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+// evaluates with an explicit stack of frames rather than the call stack, so the depth of an expression is limited only
+// by the heap. every input of a function that it has not declared lazy is evaluated on the stack before it is called
+// once, and a conditional continues on the stack with whichever branch it chooses. a lazy input is evaluated when the
+// function asks for it, by a nested evaluation. a lambda is a value here: its body is evaluated by the function given it
+public final class IterativeEvaluator {
+    private IterativeEvaluator() {
+    }
+
+    public static VValue evaluate(VExpression expr, EvaluationContext ctx) {
+        var leaf = evaluateLeaf(expr, ctx);
+        if (leaf != null) {
+            return leaf;
+        }
+
+        var stack = new ArrayDeque<Frame>();
+        stack.push(frameFor(expr));
+        VValue result = null;
+        while (true) {
+            var frame = stack.peek();
+            if (result != null) {
+                frame.accept(result);
+                result = null;
+            }
+
+            var child = frame.step(ctx);
+            if (child == null) {
+                stack.pop();
+                if (stack.isEmpty()) {
+                    return frame.result;
+                }
+
+                result = frame.result;
+            } else {
+                result = evaluateLeaf(child, ctx);
+                if (result == null) {
+                    stack.push(frameFor(child));
+                }
+            }
+        }
+    }
+
+    private static @Nullable VValue evaluateLeaf(VExpression expr, EvaluationContext ctx) {
+        if (expr instanceof VExpression.Value || expr instanceof VExpression.VariableRef || expr instanceof VExpression.Lambda) {
+            return expr.evaluate(ctx);
+        }
+
+        return null;
+    }
+
+    private static Frame frameFor(VExpression expr) {
+        if (expr instanceof VExpression.FunctionApplication app) {
+            if (app.resolvedSignature() == null) {
+                throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+            }
+
+            if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction operands) {
+                return new ShortCircuitFrame(app, shortCircuit.decisive(), operands.entries());
+            }
+
+            if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.Conditional conditional) {
+                return new ConditionalFrame(app, conditional);
+            }
+
+            return new ApplicationFrame(app);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            return new ListFrame(list);
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            if (object.resolvedType() == null) {
+                throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+            }
+
+            return new ObjectFrame(object);
+        }
+
+        throw new IllegalArgumentException("Unknown expression kind: " + expr.getClass());
+    }
+
+    private abstract static class Frame {
+        VValue result;
+
+        // the next child to evaluate, or null once the result is set
+        abstract @Nullable VExpression step(EvaluationContext ctx);
+
+        abstract void accept(VValue child);
+    }
+
+    private static final class ApplicationFrame extends Frame {
+        private final VExpression.FunctionApplication app;
+        private final String[] eager;
+        private final Map<String, VValue> inputs = new HashMap<>();
+        private int index;
+
+        private ApplicationFrame(VExpression.FunctionApplication app) {
+            this.app = app;
+            this.eager = app.inputs().keySet().stream().filter(name -> !app.function().isLazy(name)).toArray(String[]::new);
+        }
+
+        @Override
+        @Nullable VExpression step(EvaluationContext ctx) {
+            if (this.index < this.eager.length) {
+                return this.app.inputs().get(this.eager[this.index]);
+            }
+
+            this.result = this.app.function().function().apply(ctx, this.app.resolvedSignature(), name -> this.input(name, ctx));
+            return null;
+        }
+
+        private VValue input(String name, EvaluationContext ctx) {
+            var value = this.inputs.get(name);
+            if (value != null) {
+                return value;
+            }
+
+            var input = this.app.inputs().get(name);
+            if (input == null) {
+                throw new NoSuchElementException("No input with name " + name);
+            }
+
+            value = evaluate(input, ctx);
+            this.inputs.put(name, value);
+            return value;
+        }
+
+        @Override
+        void accept(VValue child) {
+            this.inputs.put(this.eager[this.index++], child);
+        }
+    }
+
+    private static final class ShortCircuitFrame extends Frame {
+        private final VExpression.FunctionApplication app;
+        private final boolean decisive;
+        private final List<VExpression> operands;
+        private int index;
+        private boolean decided;
+
+        private ShortCircuitFrame(VExpression.FunctionApplication app, boolean decisive, List<VExpression> operands) {
+            this.app = app;
+            this.decisive = decisive;
+            this.operands = operands;
+        }
+
+        @Override
+        @Nullable VExpression step(EvaluationContext ctx) {
+            if (!this.decided && this.index < this.operands.size()) {
+                return this.operands.get(this.index++);
+            }
+
+            this.result = VValue.trusted(this.app.resolvedSignature().outputType(), this.decided == this.decisive, ctx.env());
+            return null;
+        }
+
+        @Override
+        void accept(VValue child) {
+            this.decided = (Boolean) child.value() == this.decisive;
+        }
+    }
+
+    private static final class ConditionalFrame extends Frame {
+        private final VExpression.FunctionApplication app;
+        private final VFunctionDefinition.Specialisation.Conditional conditional;
+        private @Nullable VExpression branch;
+
+        private ConditionalFrame(VExpression.FunctionApplication app, VFunctionDefinition.Specialisation.Conditional conditional) {
+            this.app = app;
+            this.conditional = conditional;
+        }
+
+        @Override
+        @Nullable VExpression step(EvaluationContext ctx) {
+            if (this.result != null) {
+                return null;
+            }
+
+            return this.branch == null ? this.app.inputs().get(this.conditional.predicate()) : this.branch;
+        }
+
+        @Override
+        void accept(VValue child) {
+            if (this.branch == null) {
+                var name = (Boolean) child.value() ? this.conditional.ifTrue() : this.conditional.ifFalse();
+                this.branch = this.app.inputs().get(name);
+                if (this.branch == null) {
+                    throw new NoSuchElementException("No input with name " + name);
+                }
+            } else {
+                this.result = child;
+            }
+        }
+    }
+
+    private static final class ListFrame extends Frame {
+        private final VExpression.ListConstruction list;
+        private final VValue[] values;
+        private int index;
+
+        private ListFrame(VExpression.ListConstruction list) {
+            this.list = list;
+            this.values = new VValue[list.entries().size()];
+        }
+
+        @Override
+        @Nullable VExpression step(EvaluationContext ctx) {
+            if (this.index < this.values.length) {
+                return this.list.entries().get(this.index);
+            }
+
+            this.result = VValue.trusted(this.list.resolvedType(), List.of(this.values), ctx.env());
+            return null;
+        }
+
+        @Override
+        void accept(VValue child) {
+            this.values[this.index++] = child;
+        }
+    }
+
+    private static final class ObjectFrame extends Frame {
+        private final VExpression.ObjectConstruction object;
+        private final String[] names;
+        private final Map<String, VValue> values = new HashMap<>();
+        private int index;
+
+        private ObjectFrame(VExpression.ObjectConstruction object) {
+            this.object = object;
+            this.names = object.properties().keySet().toArray(new String[0]);
+        }
+
+        @Override
+        @Nullable VExpression step(EvaluationContext ctx) {
+            if (this.index < this.names.length) {
+                return this.object.properties().get(this.names[this.index]);
+            }
+
+            this.result = VValue.trusted(this.object.resolvedType(), this.object.resolvedType().constructor.apply(this.values), ctx.env());
+            return null;
+        }
+
+        @Override
+        void accept(VValue child) {
+            this.values.put(this.names[this.index++], child);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.williambl.vampilang.lang.evaluation;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+// an expression evaluated against a context that changes a few variables at a time. each pure subtree keeps its last
+// value until a variable it refers to is updated, including variables used inside lambdas passed to it. impure
+// subtrees are recomputed every time. not thread-safe
+public final class LiveExpression {
+    private final Node root;
+    private final Map<String, List<Node>> dependents = new HashMap<>();
+    private final Map<VExpression, Node> nodes = new IdentityHashMap<>();
+    private final Map<VExpression, Boolean> purity = new IdentityHashMap<>();
+    private EvaluationContext ctx;
+
+    public LiveExpression(VExpression expr, EvaluationContext ctx) {
+        this.ctx = ctx;
+        this.root = this.nodeFor(expr);
+    }
+
+    public EvaluationContext context() {
+        return this.ctx;
+    }
+
+    public VValue value() {
+        return this.root.evaluate(this.ctx);
+    }
+
+    public void update(String name, VValue value) {
+        this.ctx = this.ctx.with(name, value);
+        for (var node : this.dependents.getOrDefault(name, List.of())) {
+            node.cached = null;
+        }
+    }
+
+    public void update(Map<String, VValue> variables) {
+        variables.forEach(this::update);
+    }
+
+    private Node nodeFor(VExpression expr) {
+        var existing = this.nodes.get(expr);
+        if (existing != null) {
+            return existing;
+        }
+
+        var children = new LinkedHashMap<String, Node>();
+        var variables = new HashSet<String>();
+        if (expr instanceof VExpression.FunctionApplication app) {
+            app.inputs().forEach((name, input) -> children.put(name, this.nodeFor(input)));
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            for (int i = 0; i < list.entries().size(); i++) {
+                children.put(Integer.toString(i), this.nodeFor(list.entries().get(i)));
+            }
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            object.properties().forEach((name, property) -> children.put(name, this.nodeFor(property)));
+        } else if (expr instanceof VExpression.VariableRef variableRef) {
+            variables.add(variableRef.name());
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            lambdaVariables(lambda.expr(), variables);
+        }
+
+        for (var child : children.values()) {
+            variables.addAll(child.variables);
+        }
+
+        boolean pure = SubexpressionSharing.isPure(expr, this.purity);
+
+        var node = new Node(expr, children, variables, pure);
+        if (pure) {
+            for (var variable : variables) {
+                this.dependents.computeIfAbsent(variable, $ -> new ArrayList<>()).add(node);
+            }
+        }
+
+        this.nodes.put(expr, node);
+        return node;
+    }
+
+    private static void lambdaVariables(VExpression expr, Set<String> variables) {
+        if (expr instanceof VExpression.VariableRef variableRef) {
+            variables.add(variableRef.name());
+        } else if (expr instanceof VExpression.FunctionApplication app) {
+            app.inputs().values().forEach(input -> lambdaVariables(input, variables));
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            list.entries().forEach(entry -> lambdaVariables(entry, variables));
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            object.properties().values().forEach(property -> lambdaVariables(property, variables));
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            lambdaVariables(lambda.expr(), variables);
+        }
+    }
+
+    private static final class Node {
+        private final VExpression expr;
+        private final Map<String, Node> children;
+        private final Set<String> variables;
+        private final boolean pure;
+        private @Nullable VValue cached;
+
+        private Node(VExpression expr, Map<String, Node> children, Set<String> variables, boolean pure) {
+            this.expr = expr;
+            this.children = children;
+            this.variables = variables;
+            this.pure = pure;
+        }
+
+        private VValue evaluate(EvaluationContext ctx) {
+            if (this.cached != null) {
+                return this.cached;
+            }
+
+            var value = this.compute(ctx);
+            if (this.pure) {
+                this.cached = value;
+            }
+
+            return value;
+        }
+
+        private VValue compute(EvaluationContext ctx) {
+            if (this.expr instanceof VExpression.FunctionApplication app) {
+                if (app.resolvedSignature() == null) {
+                    throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+                }
+
+                if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction) {
+                    for (var operand : this.children.get(shortCircuit.operands()).children.values()) {
+                        if ((Boolean) operand.evaluate(ctx).value() == shortCircuit.decisive()) {
+                            return VValue.trusted(app.resolvedSignature().outputType(), shortCircuit.decisive(), ctx.env());
+                        }
+                    }
+
+                    return VValue.trusted(app.resolvedSignature().outputType(), !shortCircuit.decisive(), ctx.env());
+                }
+
+                var evaluated = new HashMap<String, VValue>();
+                return app.function().function().apply(ctx, app.resolvedSignature(), name -> evaluated.computeIfAbsent(name, k -> {
+                    var input = this.children.get(k);
+                    if (input == null) {
+                        throw new NoSuchElementException("No input with name " + k);
+                    }
+
+                    return input.evaluate(ctx);
+                }));
+            } else if (this.expr instanceof VExpression.ListConstruction list) {
+                var entries = new ArrayList<VValue>(this.children.size());
+                for (var entry : this.children.values()) {
+                    entries.add(entry.evaluate(ctx));
+                }
+
+                return VValue.trusted(list.resolvedType(), entries, ctx.env());
+            } else if (this.expr instanceof VExpression.ObjectConstruction object) {
+                if (object.resolvedType() == null) {
+                    throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+                }
+
+                var properties = new HashMap<String, VValue>();
+                this.children.forEach((name, property) -> properties.put(name, property.evaluate(ctx)));
+                return VValue.trusted(object.resolvedType(), object.resolvedType().constructor.apply(properties), ctx.env());
+            }
+
+            return this.expr.evaluate(ctx);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.williambl.vampilang.lang.evaluation;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// evaluates sibling inputs on a fork/join pool when at least two of them are pure and have an estimated cost of at least
+// the threshold. the first of those is evaluated on the current thread, so an expression with nothing expensive in it is
+// evaluated entirely on the calling thread. only the strict inputs of a function are started early, so a function that
+// reads an input conditionally, like the branches of a conditional or a fallback, still only evaluates what it reads
+public final class ParallelEvaluator {
+    private final EvaluationContext ctx;
+    private final ForkJoinPool pool;
+    private final long threshold;
+    private final Map<VExpression, Long> costs;
+    private final Map<VExpression, Boolean> purity;
+
+    private ParallelEvaluator(EvaluationContext ctx, ForkJoinPool pool, long threshold, Map<VExpression, Long> costs, Map<VExpression, Boolean> purity) {
+        this.ctx = ctx;
+        this.pool = pool;
+        this.threshold = threshold;
+        this.costs = costs;
+        this.purity = purity;
+    }
+
+    public static VValue evaluate(VExpression expr, EvaluationContext ctx, long threshold) {
+        return evaluate(expr, ctx, threshold, ForkJoinPool.commonPool());
+    }
+
+    public static VValue evaluate(VExpression expr, EvaluationContext ctx, long threshold, ForkJoinPool pool) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive, but was " + threshold);
+        }
+
+        var costs = new IdentityHashMap<VExpression, Long>();
+        var purity = new IdentityHashMap<VExpression, Boolean>();
+        estimate(expr, costs);
+        SubexpressionSharing.isPure(expr, purity);
+        return new ParallelEvaluator(ctx, pool, threshold, costs, purity).evaluate(expr);
+    }
+
+    // the sum of the costs of every function applied by the expression, outside of lambda bodies
+    public static long estimateCost(VExpression expr) {
+        return estimate(expr, new IdentityHashMap<>());
+    }
+
+    private static long estimate(VExpression expr, Map<VExpression, Long> costs) {
+        var known = costs.get(expr);
+        if (known != null) {
+            return known;
+        }
+
+        long cost = 0;
+        if (expr instanceof VExpression.FunctionApplication app) {
+            cost = app.function().cost();
+            for (var input : app.inputs().values()) {
+                cost += estimate(input, costs);
+            }
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            for (var entry : list.entries()) {
+                cost += estimate(entry, costs);
+            }
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            for (var property : object.properties().values()) {
+                cost += estimate(property, costs);
+            }
+        }
+
+        costs.put(expr, cost);
+        return cost;
+    }
+
+    private VValue evaluate(VExpression expr) {
+        // nothing below here can have two expensive siblings
+        if (this.costs.get(expr) / 2 < this.threshold) {
+            return expr.evaluate(this.ctx);
+        }
+
+        if (expr instanceof VExpression.FunctionApplication app) {
+            if (app.resolvedSignature() == null) {
+                throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+            }
+
+            if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit && app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction operands) {
+                for (var operand : operands.entries()) {
+                    if ((Boolean) this.evaluate(operand).value() == shortCircuit.decisive()) {
+                        return VValue.trusted(app.resolvedSignature().outputType(), shortCircuit.decisive(), this.ctx.env());
+                    }
+                }
+
+                return VValue.trusted(app.resolvedSignature().outputType(), !shortCircuit.decisive(), this.ctx.env());
+            }
+
+            var strict = new HashMap<String, VExpression>();
+            app.inputs().forEach((name, input) -> {
+                if (app.function().isStrict(name)) {
+                    strict.put(name, input);
+                }
+            });
+            Map<String, VValue> evaluated = new HashMap<>(this.evaluateSiblings(strict));
+            return app.function().function().apply(this.ctx, app.resolvedSignature(), name -> evaluated.computeIfAbsent(name, k -> this.evaluate(app.inputs().get(k))));
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            var entries = new LinkedHashMap<String, VExpression>();
+            for (int i = 0; i < list.entries().size(); i++) {
+                entries.put(Integer.toString(i), list.entries().get(i));
+            }
+
+            var started = this.evaluateSiblings(entries);
+            var values = new ArrayList<VValue>(entries.size());
+            entries.forEach((index, entry) -> values.add(started.containsKey(index) ? started.get(index) : this.evaluate(entry)));
+            return VValue.trusted(list.resolvedType(), values, this.ctx.env());
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            if (object.resolvedType() == null) {
+                throw new UnsupportedOperationException("Cannot evaluate unresolved expression!");
+            }
+
+            var values = new HashMap<>(this.evaluateSiblings(object.properties()));
+            object.properties().forEach((name, property) -> values.computeIfAbsent(name, k -> this.evaluate(property)));
+            return VValue.trusted(object.resolvedType(), object.resolvedType().constructor.apply(values), this.ctx.env());
+        }
+
+        return expr.evaluate(this.ctx);
+    }
+
+    // evaluates the expensive pure siblings, if there are at least two of them. the rest are left for the caller
+    private Map<String, VValue> evaluateSiblings(Map<String, VExpression> siblings) {
+        var expensive = new ArrayList<Map.Entry<String, VExpression>>();
+        for (var sibling : siblings.entrySet()) {
+            if (this.purity.get(sibling.getValue()) && this.costs.get(sibling.getValue()) >= this.threshold) {
+                expensive.add(sibling);
+            }
+        }
+
+        if (expensive.size() < 2) {
+            return Map.of();
+        }
+
+        var forked = new ArrayList<ForkJoinTask<VValue>>(expensive.size() - 1);
+        for (int i = 1; i < expensive.size(); i++) {
+            var sibling = expensive.get(i).getValue();
+            forked.add(this.pool.submit(() -> this.evaluate(sibling)));
+        }
+
+        var values = new HashMap<String, VValue>();
+        values.put(expensive.get(0).getKey(), this.evaluate(expensive.get(0).getValue()));
+        for (int i = 1; i < expensive.size(); i++) {
+            values.put(expensive.get(i).getKey(), forked.get(i - 1).join());
+        }
+
+        return values;
+    }
+}
@@ -2,18 +2,240 @@ package com.williambl.vampilang.lang.function;
 
 import com.williambl.vampilang.lang.EvaluationContext;
 import com.williambl.vampilang.lang.VValue;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
-public record VFunctionDefinition(String name, VFunctionSignature signature, Func function) {
+public record VFunctionDefinition(String name, VFunctionSignature signature, Func function, @Nullable Intrinsic intrinsic, @Nullable Specialisation specialisation, boolean pure, @Nullable AsyncFunc async, int cost, Set<String> strictInputs, Set<String> lazyInputs) {
+    public VFunctionDefinition(String name, VFunctionSignature signature, Func function) {
+        this(name, signature, function, null, null, false, null, 1, Set.of(), Set.of());
+    }
+
+    public VFunctionDefinition(String name, VFunctionSignature signature, Func function, @Nullable Intrinsic intrinsic) {
+        this(name, signature, function, intrinsic, null, false, null, 1, Set.of(), Set.of());
+    }
+
+    // a function that completes its result later. synchronous evaluation waits for it, while AsyncEvaluator does not
+    public static VFunctionDefinition async(String name, VFunctionSignature signature, AsyncFunc function) {
+        return new VFunctionDefinition(name, signature, (ctx, sig, inputs) -> {
+            try {
+                return function.apply(ctx, sig, inputs).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+
+                throw e;
+            }
+        }, null, null, false, function, 1, Set.of(), Set.of());
+    }
+
+    public VFunctionDefinition withIntrinsic(Intrinsic intrinsic) {
+        return new VFunctionDefinition(this.name, this.signature, this.function, intrinsic, this.specialisation, this.pure, this.async, this.cost, this.strictInputs, this.lazyInputs);
+    }
+
+    public VFunctionDefinition withSpecialisation(Specialisation specialisation) {
+        return new VFunctionDefinition(this.name, this.signature, this.function, this.intrinsic == null ? specialisation.intrinsic() : this.intrinsic, specialisation, this.pure, this.async, this.cost, this.strictInputs, this.lazyInputs);
+    }
+
+    // a pure function's result depends only on its inputs, and it has no side effects
+    public VFunctionDefinition asPure() {
+        return new VFunctionDefinition(this.name, this.signature, this.function, this.intrinsic, this.specialisation, true, this.async, this.cost, this.strictInputs, this.lazyInputs);
+    }
+
+    // a static estimate of the work one call does, where simple arithmetic costs 1. ParallelEvaluator uses it to decide
+    // which inputs are worth evaluating on another thread
+    public VFunctionDefinition withCost(int cost) {
+        if (cost < 0) {
+            throw new IllegalArgumentException("Cost must not be negative, but was " + cost);
+        }
+
+        return new VFunctionDefinition(this.name, this.signature, this.function, this.intrinsic, this.specialisation, this.pure, this.async, cost, this.strictInputs, this.lazyInputs);
+    }
+
+    // strict inputs are read by every call, so evaluators may evaluate them before calling the function. the inputs of an
+    // intrinsic, the predicate of a conditional and the operands of a short circuit are always strict
+    public VFunctionDefinition withStrictInputs(String... names) {
+        for (var name : names) {
+            if (!this.signature.inputTypes().containsKey(name)) {
+                throw new IllegalArgumentException("Function %s has no input named %s".formatted(this.name, name));
+            }
+        }
+
+        var strictInputs = new HashSet<>(this.strictInputs);
+        strictInputs.addAll(Arrays.asList(names));
+        return new VFunctionDefinition(this.name, this.signature, this.function, this.intrinsic, this.specialisation, this.pure, this.async, this.cost, Set.copyOf(strictInputs), this.lazyInputs);
+    }
+
+    // lazy inputs may go unread by a call, so must only be evaluated when the function asks for them. IterativeEvaluator
+    // evaluates every other input before calling the function. the branches of a conditional are always lazy
+    public VFunctionDefinition withLazyInputs(String... names) {
+        for (var name : names) {
+            if (!this.signature.inputTypes().containsKey(name)) {
+                throw new IllegalArgumentException("Function %s has no input named %s".formatted(this.name, name));
+            }
+
+            if (this.isStrict(name)) {
+                throw new IllegalArgumentException("Input %s of function %s is strict, so cannot be lazy".formatted(name, this.name));
+            }
+        }
+
+        var lazyInputs = new HashSet<>(this.lazyInputs);
+        lazyInputs.addAll(Arrays.asList(names));
+        return new VFunctionDefinition(this.name, this.signature, this.function, this.intrinsic, this.specialisation, this.pure, this.async, this.cost, this.strictInputs, Set.copyOf(lazyInputs));
+    }
+
+    public boolean isStrict(String input) {
+        if (this.strictInputs.contains(input) || this.intrinsic != null && this.intrinsic.inputs().contains(input)) {
+            return true;
+        }
+
+        if (this.specialisation instanceof Specialisation.Conditional conditional) {
+            return conditional.predicate().equals(input);
+        } else if (this.specialisation instanceof Specialisation.ShortCircuit shortCircuit) {
+            return shortCircuit.operands().equals(input);
+        }
+
+        return false;
+    }
+
+    public boolean isLazy(String input) {
+        if (this.lazyInputs.contains(input)) {
+            return true;
+        }
+
+        return this.specialisation instanceof Specialisation.Conditional conditional && (conditional.ifTrue().equals(input) || conditional.ifFalse().equals(input));
+    }
+
     @FunctionalInterface
     public interface Func {
         public VValue apply(EvaluationContext ctx, VFunctionSignature signature, Inputs inputs);
     }
 
+    @FunctionalInterface
+    public interface AsyncFunc {
+        public CompletableFuture<VValue> apply(EvaluationContext ctx, VFunctionSignature signature, Inputs inputs);
+    }
+
+    // only valid while the function it was passed to is running: compiled programs reuse it for later calls
     @FunctionalInterface
     public interface Inputs {
         public VValue get(String name);
     }
+
+    public record Intrinsic(List<String> inputs, MethodHandle handle) {
+        public Intrinsic {
+            if (handle.type().parameterCount() != inputs.size()) {
+                throw new IllegalArgumentException("Intrinsic handle %s does not take inputs %s".formatted(handle, inputs));
+            }
+        }
+
+        public static <T> Intrinsic of(List<String> inputs, Class<T> functionalInterface, T implementation) {
+            var methods = Arrays.stream(functionalInterface.getMethods())
+                    .filter(m -> Modifier.isAbstract(m.getModifiers()))
+                    .toList();
+            if (methods.size() != 1) {
+                throw new IllegalArgumentException("%s is not a functional interface".formatted(functionalInterface));
+            }
+
+            try {
+                return new Intrinsic(inputs, MethodHandles.publicLookup().unreflect(methods.get(0)).bindTo(implementation));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    // primitive implementations of a function, which must agree with its Func. compiled expressions use these to chain
+    // numeric and boolean subtrees without boxing
+    public sealed interface Specialisation {
+        @Nullable Intrinsic intrinsic();
+
+        record DoubleUnary(String operand, DoubleUnaryOperator operator, @Nullable Lanewise lanewise) implements Specialisation {
+            public DoubleUnary(String operand, DoubleUnaryOperator operator) {
+                this(operand, operator, null);
+            }
+
+            @Override
+            public Intrinsic intrinsic() {
+                return Intrinsic.of(List.of(this.operand), DoubleUnaryOperator.class, this.operator);
+            }
+        }
+
+        record DoubleBinary(String a, String b, DoubleBinaryOperator operator, @Nullable Lanewise lanewise) implements Specialisation {
+            public DoubleBinary(String a, String b, DoubleBinaryOperator operator) {
+                this(a, b, operator, null);
+            }
+
+            @Override
+            public Intrinsic intrinsic() {
+                return Intrinsic.of(List.of(this.a, this.b), DoubleBinaryOperator.class, this.operator);
+            }
+        }
+
+        record DoubleComparison(String a, String b, DoubleBiPredicate predicate, @Nullable Lanewise lanewise) implements Specialisation {
+            public DoubleComparison(String a, String b, DoubleBiPredicate predicate) {
+                this(a, b, predicate, null);
+            }
+
+            @Override
+            public Intrinsic intrinsic() {
+                return Intrinsic.of(List.of(this.a, this.b), DoubleBiPredicate.class, this.predicate);
+            }
+        }
+
+        record BooleanUnary(String operand, BooleanUnaryOperator operator) implements Specialisation {
+            @Override
+            public Intrinsic intrinsic() {
+                return Intrinsic.of(List.of(this.operand), BooleanUnaryOperator.class, this.operator);
+            }
+        }
+
+        // evaluates the entries of a list literal given as the operands input in order, stopping at the first one equal
+        // to the decisive value
+        record ShortCircuit(String operands, boolean decisive) implements Specialisation {
+            @Override
+            public @Nullable Intrinsic intrinsic() {
+                return null;
+            }
+        }
+
+        // returns the ifTrue input if the predicate input is true, and the ifFalse input otherwise
+        record Conditional(String predicate, String ifTrue, String ifFalse) implements Specialisation {
+            @Override
+            public @Nullable Intrinsic intrinsic() {
+                return null;
+            }
+        }
+
+        // names the operator a double specialisation computes, when it is one that batch evaluation can vectorise. the
+        // vectorised operator must give exactly the same results as the scalar one
+        enum Lanewise {
+            ADD, SUBTRACT, MULTIPLY, DIVIDE, MIN, MAX,
+            ABSOLUTE, NEGATE, SQUARE_ROOT,
+            LESS_THAN, GREATER_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN_OR_EQUAL
+        }
+
+        @FunctionalInterface
+        interface DoubleBiPredicate {
+            boolean test(double a, double b);
+        }
+
+        @FunctionalInterface
+        interface BooleanUnaryOperator {
+            boolean applyAsBoolean(boolean operand);
+        }
+    }
 }
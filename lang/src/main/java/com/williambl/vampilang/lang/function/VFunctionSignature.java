@@ -28,7 +28,7 @@ public record VFunctionSignature(Map<String, VType> inputTypes, VType outputType
         for (var key : this.inputTypes.keySet()) {
             var inputType = this.inputTypes.get(key);
             var actualInputType = actualInputs.get(key);
-            if (!inputType.contains(actualInputType, env)) {
+            if (!env.contains(inputType, actualInputType)) {
                 return DataResult.error(() -> "cannot reconcile %s and %s".formatted(inputType, actualInputs));
             }
 
@@ -45,11 +45,11 @@ public record VFunctionSignature(Map<String, VType> inputTypes, VType outputType
                     continue;
                 }
 
-                if (mostGeneral.contains(type, env)) {
+                if (env.contains(mostGeneral, type)) {
                     continue;
                 }
 
-                if (type.contains(mostGeneral, env)) {
+                if (env.contains(type, mostGeneral)) {
                     mostGeneral = type;
                     continue;
                 }
@@ -71,8 +71,8 @@ public record VFunctionSignature(Map<String, VType> inputTypes, VType outputType
         }
 
         return DataResult.success(new VFunctionSignature(
-                this.inputTypes.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, kv -> recursivelyRetrieveResolvedType(reducedResolvedTemplates, kv.getValue()))),
-                recursivelyRetrieveResolvedType(reducedResolvedTemplates, this.outputType)
+                this.inputTypes.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, kv -> env.intern(recursivelyRetrieveResolvedType(reducedResolvedTemplates, kv.getValue())))),
+                env.intern(recursivelyRetrieveResolvedType(reducedResolvedTemplates, this.outputType))
         ));
     }
 
@@ -90,7 +90,7 @@ public record VFunctionSignature(Map<String, VType> inputTypes, VType outputType
     }
 
     private static void recursivelyResolveTypes(VEnvironment env, Map<VType, Set<VType>> resolvedTemplates, VType input, VType actual) {
-        if (!actual.contains(input, env)) { // if actual input type is more specific
+        if (!env.contains(actual, input)) { // if actual input type is more specific
             resolvedTemplates.compute(input, (i, s) -> {
                 var res = s == null ? new HashSet<VType>() : s;
                 res.add(actual);
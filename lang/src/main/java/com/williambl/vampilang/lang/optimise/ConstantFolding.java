@@ -0,0 +1,117 @@
+package com.williambl.vampilang.lang.optimise;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VEnvironment;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public final class ConstantFolding {
+    private ConstantFolding() {
+    }
+
+    // replaces applications of pure functions and list literals whose inputs are all values with the value they
+    // evaluate to, and prunes conditionals and short-circuiting operators with constant inputs. the expression must
+    // already be resolved
+    public static VExpression fold(VExpression expr, VEnvironment env) {
+        return fold(expr, new EvaluationContext(env));
+    }
+
+    private static VExpression fold(VExpression expr, EvaluationContext ctx) {
+        if (expr instanceof VExpression.FunctionApplication app) {
+            if (app.resolvedSignature() == null) {
+                throw new UnsupportedOperationException("Cannot fold unresolved expression!");
+            }
+
+            var inputs = new HashMap<String, VExpression>();
+            boolean allValues = true;
+            for (var input : app.inputs().entrySet()) {
+                var folded = fold(input.getValue(), ctx);
+                allValues &= folded instanceof VExpression.Value;
+                inputs.put(input.getKey(), folded);
+            }
+
+            var result = new VExpression.FunctionApplication(app.function(), app.resolvedSignature(), inputs);
+            if (allValues && app.function().pure()) {
+                return tryEvaluate(result, ctx);
+            } else if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.Conditional conditional
+                    && inputs.get(conditional.predicate()) instanceof VExpression.Value predicate
+                    && predicate.value().value() instanceof Boolean bool) {
+                var branch = inputs.get(bool ? conditional.ifTrue() : conditional.ifFalse());
+                return branch == null ? result : branch;
+            } else if (app.function().specialisation() instanceof VFunctionDefinition.Specialisation.ShortCircuit shortCircuit) {
+                return foldShortCircuit(result, shortCircuit, ctx);
+            }
+
+            return result;
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            var entries = new ArrayList<VExpression>(list.entries().size());
+            boolean allValues = true;
+            for (var entry : list.entries()) {
+                var folded = fold(entry, ctx);
+                allValues &= folded instanceof VExpression.Value;
+                entries.add(folded);
+            }
+
+            var result = new VExpression.ListConstruction(list.resolvedType(), entries);
+            return allValues && list.resolvedType() != null ? tryEvaluate(result, ctx) : result;
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            var properties = new HashMap<String, VExpression>();
+            for (var property : object.properties().entrySet()) {
+                properties.put(property.getKey(), fold(property.getValue(), ctx));
+            }
+
+            return new VExpression.ObjectConstruction(object.typeName(), properties, object.resolvedType());
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            return new VExpression.Lambda(lambda.type(), fold(lambda.expr(), ctx));
+        }
+
+        return expr;
+    }
+
+    private static VExpression foldShortCircuit(VExpression.FunctionApplication app, VFunctionDefinition.Specialisation.ShortCircuit shortCircuit, EvaluationContext ctx) {
+        if (!(app.inputs().get(shortCircuit.operands()) instanceof VExpression.ListConstruction list)) {
+            return app;
+        }
+
+        var remaining = new ArrayList<VExpression>(list.entries().size());
+        for (var entry : list.entries()) {
+            if (entry instanceof VExpression.Value value && value.value().value() instanceof Boolean bool) {
+                if (bool != shortCircuit.decisive()) {
+                    continue;
+                }
+
+                if (remaining.stream().allMatch(SubexpressionSharing::isPure)) {
+                    return new VExpression.Value(VValue.trusted(app.type(), shortCircuit.decisive(), ctx.env()));
+                }
+
+                remaining.add(entry);
+                break;
+            }
+
+            remaining.add(entry);
+        }
+
+        if (remaining.isEmpty()) {
+            return new VExpression.Value(VValue.trusted(app.type(), !shortCircuit.decisive(), ctx.env()));
+        } else if (remaining.size() == list.entries().size()) {
+            return app;
+        }
+
+        var inputs = new HashMap<>(app.inputs());
+        inputs.put(shortCircuit.operands(), new VExpression.ListConstruction(list.resolvedType(), remaining));
+        return new VExpression.FunctionApplication(app.function(), app.resolvedSignature(), inputs);
+    }
+
+    // a function that throws for these inputs would throw on every evaluation, so leave it to do that at runtime
+    private static VExpression tryEvaluate(VExpression expr, EvaluationContext ctx) {
+        try {
+            return new VExpression.Value(expr.evaluate(ctx));
+        } catch (RuntimeException e) {
+            return expr;
+        }
+    }
+}
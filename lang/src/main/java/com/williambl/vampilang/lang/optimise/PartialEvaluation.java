@@ -0,0 +1,57 @@
+package com.williambl.vampilang.lang.optimise;
+
+import com.williambl.vampilang.lang.VEnvironment;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.VValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class PartialEvaluation {
+    private PartialEvaluation() {
+    }
+
+    // substitutes the bound variables into a resolved expression and folds what becomes constant. the residual
+    // expression can be evaluated with any context that holds the remaining variables
+    public static VExpression specialise(VExpression expr, Map<String, VValue> bindings, VEnvironment env) {
+        return ConstantFolding.fold(substitute(expr, bindings, env), env);
+    }
+
+    private static VExpression substitute(VExpression expr, Map<String, VValue> bindings, VEnvironment env) {
+        if (expr instanceof VExpression.VariableRef variableRef) {
+            var value = bindings.get(variableRef.name());
+            if (value == null) {
+                return variableRef;
+            }
+
+            if (!env.contains(variableRef.type(), value.type())) {
+                throw new IllegalArgumentException("Binding for variable %s is not of type %s".formatted(variableRef.name(), variableRef.type()));
+            }
+
+            return new VExpression.Value(value);
+        } else if (expr instanceof VExpression.FunctionApplication app) {
+            var inputs = new HashMap<String, VExpression>();
+            for (var input : app.inputs().entrySet()) {
+                inputs.put(input.getKey(), substitute(input.getValue(), bindings, env));
+            }
+
+            return new VExpression.FunctionApplication(app.function(), app.resolvedSignature(), inputs);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            return new VExpression.ListConstruction(list.resolvedType(), list.entries().stream().map(e -> substitute(e, bindings, env)).toList());
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            var properties = new HashMap<String, VExpression>();
+            for (var property : object.properties().entrySet()) {
+                properties.put(property.getKey(), substitute(property.getValue(), bindings, env));
+            }
+
+            return new VExpression.ObjectConstruction(object.typeName(), properties, object.resolvedType());
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            var lambdaSpec = lambda.type().specToMerge();
+            var unshadowed = new HashMap<>(bindings);
+            unshadowed.keySet().removeIf(name -> lambdaSpec.nullableTypeOf(name) != null);
+            return new VExpression.Lambda(lambda.type(), substitute(lambda.expr(), unshadowed, env));
+        }
+
+        return expr;
+    }
+}
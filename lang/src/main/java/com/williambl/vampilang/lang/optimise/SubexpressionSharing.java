@@ -0,0 +1,126 @@
+package com.williambl.vampilang.lang.optimise;
+
+import com.williambl.vampilang.lang.VExpression;
+
+import java.util.*;
+
+public final class SubexpressionSharing {
+    private SubexpressionSharing() {
+    }
+
+    // returns an equivalent expression in which structurally identical pure subexpressions are the same instance.
+    // compiling the result evaluates each shared instance at most once per evaluation context
+    public static VExpression share(VExpression expr) {
+        return share(expr, new HashMap<>(), new IdentityHashMap<>());
+    }
+
+    // as share, but with subexpressions also shared between the expressions
+    public static List<VExpression> shareAll(List<VExpression> exprs) {
+        var canonical = new HashMap<VExpression, VExpression>();
+        var purity = new IdentityHashMap<VExpression, Boolean>();
+        return exprs.stream().map(expr -> share(expr, canonical, purity)).toList();
+    }
+
+    private static VExpression share(VExpression expr, Map<VExpression, VExpression> canonical, Map<VExpression, Boolean> purity) {
+        VExpression rebuilt;
+        if (expr instanceof VExpression.FunctionApplication app) {
+            var inputs = new HashMap<String, VExpression>();
+            for (var input : app.inputs().entrySet()) {
+                inputs.put(input.getKey(), share(input.getValue(), canonical, purity));
+            }
+
+            rebuilt = new VExpression.FunctionApplication(app.function(), app.resolvedSignature(), inputs);
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            rebuilt = new VExpression.ListConstruction(list.resolvedType(), list.entries().stream().map(e -> share(e, canonical, purity)).toList());
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            var properties = new HashMap<String, VExpression>();
+            for (var property : object.properties().entrySet()) {
+                properties.put(property.getKey(), share(property.getValue(), canonical, purity));
+            }
+
+            rebuilt = new VExpression.ObjectConstruction(object.typeName(), properties, object.resolvedType());
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            rebuilt = new VExpression.Lambda(lambda.type(), share(lambda.expr(), canonical, purity));
+        } else {
+            rebuilt = expr;
+        }
+
+        if (!isPure(rebuilt, purity)) {
+            return rebuilt;
+        }
+
+        var existing = canonical.putIfAbsent(rebuilt, rebuilt);
+        return existing == null ? rebuilt : existing;
+    }
+
+    // whether evaluating the expression only ever applies pure functions, including inside the bodies of lambdas
+    public static boolean isPure(VExpression expr) {
+        return isPure(expr, new IdentityHashMap<>());
+    }
+
+    // as isPure, remembering the answer for every node visited, so asking about many nodes of one tree visits each once
+    public static boolean isPure(VExpression expr, Map<VExpression, Boolean> known) {
+        var cached = known.get(expr);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean pure = true;
+        if (expr instanceof VExpression.FunctionApplication app) {
+            pure = app.function().pure();
+            for (var input : app.inputs().values()) {
+                pure &= isPure(input, known);
+            }
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            for (var entry : list.entries()) {
+                pure &= isPure(entry, known);
+            }
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            for (var property : object.properties().values()) {
+                pure &= isPure(property, known);
+            }
+        } else if (expr instanceof VExpression.Lambda lambda) {
+            pure = isPure(lambda.expr(), known);
+        }
+
+        known.put(expr, pure);
+        return pure;
+    }
+
+    // the pure non-trivial nodes reachable from the root by more than one path, outside of lambda bodies
+    public static Set<VExpression> sharedNodes(VExpression root) {
+        return sharedNodes(List.of(root));
+    }
+
+    public static Set<VExpression> sharedNodes(Collection<VExpression> roots) {
+        var references = new IdentityHashMap<VExpression, Integer>();
+        for (var root : roots) {
+            countReferences(root, references);
+        }
+
+        var shared = Collections.newSetFromMap(new IdentityHashMap<VExpression, Boolean>());
+        var purity = new IdentityHashMap<VExpression, Boolean>();
+        for (var entry : references.entrySet()) {
+            var expr = entry.getKey();
+            if (entry.getValue() > 1 && !(expr instanceof VExpression.Value || expr instanceof VExpression.VariableRef || expr instanceof VExpression.Lambda) && isPure(expr, purity)) {
+                shared.add(expr);
+            }
+        }
+
+        return shared;
+    }
+
+    private static void countReferences(VExpression expr, Map<VExpression, Integer> references) {
+        if (references.merge(expr, 1, Integer::sum) > 1) {
+            return;
+        }
+
+        if (expr instanceof VExpression.FunctionApplication app) {
+            app.inputs().values().forEach(input -> countReferences(input, references));
+        } else if (expr instanceof VExpression.ListConstruction list) {
+            list.entries().forEach(entry -> countReferences(entry, references));
+        } else if (expr instanceof VExpression.ObjectConstruction object) {
+            object.properties().values().forEach(property -> countReferences(property, references));
+        }
+    }
+}
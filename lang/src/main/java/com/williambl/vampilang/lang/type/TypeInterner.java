@@ -0,0 +1,65 @@
+package com.williambl.vampilang.lang.type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// keeps one canonical instance of each structurally distinct parameterised type, so that equal types are usually the
+// same instance and compare by identity, and two canonical instances from one interner are known to differ without
+// looking at their parameters. other types are already compared by identity. lambda types are not merged, as their
+// specs are not part of their equality, but their parameters are. types containing templates are not merged either, as
+// templates are made unique for every function application and would fill the interner
+public final class TypeInterner {
+    private final Map<VType, VType> canonical = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T extends VType> T intern(T type) {
+        if (!(type instanceof VParameterisedType paramed) || paramed.parameters == null) {
+            return type;
+        }
+
+        List<VType> parameters = null;
+        for (int i = 0; i < paramed.parameters.size(); i++) {
+            var parameter = paramed.parameters.get(i);
+            var interned = this.intern(parameter);
+            if (interned != parameter) {
+                if (parameters == null) {
+                    parameters = new ArrayList<>(paramed.parameters);
+                }
+
+                parameters.set(i, interned);
+            }
+        }
+
+        var rebuilt = parameters == null ? paramed : (VParameterisedType) paramed.with(parameters);
+        if (rebuilt instanceof LambdaVType || !isGround(rebuilt)) {
+            return (T) rebuilt;
+        }
+
+        var existing = this.canonical.putIfAbsent(rebuilt, rebuilt);
+        if (existing != null) {
+            return (T) existing;
+        }
+
+        if (rebuilt.canonicalIn == null) {
+            rebuilt.canonicalIn = this;
+        }
+
+        return (T) rebuilt;
+    }
+
+    static boolean isGround(VType type) {
+        if (type instanceof VTemplateType) {
+            return false;
+        } else if (type instanceof VParameterisedType paramed) {
+            return isGround(paramed.bareType) && (paramed.parameters == null || paramed.parameters.stream().allMatch(TypeInterner::isGround));
+        }
+
+        return true;
+    }
+
+    public int size() {
+        return this.canonical.size();
+    }
+}
@@ -0,0 +1,102 @@
+package com.williambl.vampilang.lang.type;
+
+import com.williambl.vampilang.lang.VEnvironment;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the registered types of an environment, ordered by containment. each type maps to the set of registered types that
+// contain it, as bits over a fixed ordering of the registered types, so the common supertypes of many types are found by
+// intersecting their sets. sets are computed the first time they are needed and kept, except for types containing
+// templates, which are made unique for every function application. a lattice does not see later registrations
+public final class TypeLattice {
+    private final VEnvironment env;
+    private final List<VType> types;
+    private final Map<VType, BitSet> supertypes = new ConcurrentHashMap<>();
+
+    public TypeLattice(VEnvironment env) {
+        this.env = env;
+        this.types = List.copyOf(env.allTypes().values());
+    }
+
+    // computes the supertypes of every registered type up front
+    public TypeLattice precompute() {
+        this.types.forEach(this::supertypes);
+        return this;
+    }
+
+    // the most specific registered type containing every given type, or null if there is none
+    public @Nullable VType join(Iterable<? extends VType> types) {
+        var join = this.join();
+        for (var type : types) {
+            if (!join.add(type)) {
+                return null;
+            }
+        }
+
+        return join.result();
+    }
+
+    public Join join() {
+        return new Join();
+    }
+
+    private BitSet supertypes(VType type) {
+        var cached = this.supertypes.get(type);
+        if (cached != null) {
+            return cached;
+        }
+
+        var bits = new BitSet(this.types.size());
+        for (int i = 0; i < this.types.size(); i++) {
+            if (this.env.contains(this.types.get(i), type)) {
+                bits.set(i);
+            }
+        }
+
+        if (TypeInterner.isGround(type)) {
+            this.supertypes.putIfAbsent(type, bits);
+        }
+
+        return bits;
+    }
+
+    // a running join, which types are folded into one at a time
+    public final class Join {
+        private @Nullable BitSet common;
+
+        private Join() {
+        }
+
+        // whether the types added so far still have a common supertype
+        public boolean add(VType type) {
+            var supertypes = TypeLattice.this.supertypes(type);
+            if (this.common == null) {
+                this.common = (BitSet) supertypes.clone();
+            } else {
+                this.common.and(supertypes);
+            }
+
+            return !this.common.isEmpty();
+        }
+
+        // the most specific common supertype of the types added so far, or null if there is none
+        public @Nullable VType result() {
+            if (this.common == null) {
+                return null;
+            }
+
+            int mostSpecific = -1;
+            for (int i = this.common.nextSetBit(0); i >= 0; i = this.common.nextSetBit(i + 1)) {
+                if (mostSpecific == -1 || TypeLattice.this.supertypes(TypeLattice.this.types.get(i)).get(mostSpecific)) {
+                    mostSpecific = i;
+                }
+            }
+
+            return mostSpecific == -1 ? null : TypeLattice.this.types.get(mostSpecific);
+        }
+    }
+}
@@ -15,11 +15,17 @@ public sealed class VParameterisedType implements VType permits LambdaVType {
     public final VType bareType;
     public final List<VType> parameters;
     private final Function<VEnvironment, BiPredicate<VParameterisedType, Object>> predicate;
+    // types are compared constantly as map keys, so the hash is worked out once
+    private final int hash;
+    // the interner this is the canonical instance in, if any. two different canonical instances from the same interner are
+    // never equal, so they need not be compared structurally
+    volatile TypeInterner canonicalIn;
 
     VParameterisedType(VType bareType, List<VType> parameters, Function<VEnvironment, BiPredicate<VParameterisedType, Object>> predicate) {
         this.bareType = bareType;
-        this.parameters = parameters;
+        this.parameters = parameters == null ? null : List.copyOf(parameters);
         this.predicate = predicate;
+        this.hash = Objects.hash(this.bareType, this.parameters);
     }
 
     @Override
@@ -37,7 +43,7 @@ public sealed class VParameterisedType implements VType permits LambdaVType {
         return this.equals(other) || (other instanceof VParameterisedType paramed
                 && paramed.bareType.equals(this.bareType)
                 && (paramed.parameters.equals(this.parameters)
-                || (paramed.parameters.size() == this.parameters.size() && checkBiPredicateOnLists(this.parameters, paramed.parameters, (vType, other1) -> vType.contains(other1, env)))));
+                || (paramed.parameters.size() == this.parameters.size() && checkBiPredicateOnLists(this.parameters, paramed.parameters, env::contains))));
     }
 
     @Override
@@ -79,11 +85,13 @@ public sealed class VParameterisedType implements VType permits LambdaVType {
         if (this == o) return true;
         if (o == null || this.getClass() != o.getClass()) return false;
         VParameterisedType that = (VParameterisedType) o;
-        return Objects.equals(this.bareType, that.bareType) && Objects.equals(this.parameters, that.parameters);
+        var interner = this.canonicalIn;
+        if (interner != null && interner == that.canonicalIn) return false;
+        return this.hash == that.hash && Objects.equals(this.bareType, that.bareType) && Objects.equals(this.parameters, that.parameters);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.bareType, this.parameters);
+        return this.hash;
     }
 }
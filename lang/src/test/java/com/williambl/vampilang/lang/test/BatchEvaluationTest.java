@@ -0,0 +1,156 @@
+package com.williambl.vampilang.lang.test;
+
+import com.google.common.reflect.TypeToken;
+import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.batch.BatchContext;
+import com.williambl.vampilang.lang.batch.BatchEvaluator;
+import com.williambl.vampilang.lang.batch.Column;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
+import com.williambl.vampilang.lang.type.VType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+public class BatchEvaluationTest {
+    @Test
+    public void batchEvaluationMatchesEvaluatingEachRow() {
+        var doubleType = VType.create(TypeToken.of(Double.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        var stringType = VType.create(TypeToken.of(String.class));
+        var anyType = VType.createTopTemplate();
+        var calls = new CallCounter();
+        var multiplyFunction = new VFunctionDefinition("multiply", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), doubleType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() * (Double) a.get("b").value(), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleBinary("a", "b", (a, b) -> a * b));
+        var greaterThanFunction = new VFunctionDefinition(">", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), boolType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() > (Double) a.get("b").value(), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleComparison("a", "b", (a, b) -> a > b));
+        var andFunction = new VFunctionDefinition("and", new VFunctionSignature(Map.of("operands", anyType), boolType), (ctx, sig, a) -> {
+            throw new AssertionError("generic implementation should not be used");
+        }).withSpecialisation(new VFunctionDefinition.Specialisation.ShortCircuit("operands", false));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", anyType, "b", anyType), anyType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.Conditional("predicate", "a", "b"));
+        var describeFunction = new VFunctionDefinition("describe", new VFunctionSignature(Map.of("a", doubleType), stringType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), "score " + a.get("a").value() + " for " + ctx.getVariable("name", stringType).value(), ctx.env())));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("score", doubleType, "eligible", boolType, "name", stringType));
+        var env = new VEnvironmentImpl();
+        env.registerType("double", doubleType);
+        env.registerType("bool", boolType);
+        env.registerType("string", stringType);
+        env.registerType("list", VType.create());
+        var program = VExpression.functionApplication(ifElseFunction, Map.of(
+                "predicate", VExpression.functionApplication(andFunction, Map.of("operands", VExpression.list(List.of(
+                        VExpression.variable("eligible"),
+                        VExpression.functionApplication(greaterThanFunction, Map.of(
+                                "a", VExpression.functionApplication(multiplyFunction, Map.of("a", VExpression.variable("score"), "b", VExpression.value(doubleType, 2.0))),
+                                "b", VExpression.value(doubleType, 10.0))))))),
+                "a", VExpression.functionApplication(describeFunction, Map.of("a", VExpression.variable("score"))),
+                "b", VExpression.value(stringType, "ineligible")));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+
+        var scores = new double[]{1.0, 6.0, 7.5, 20.0, 3.0};
+        var eligible = new boolean[]{true, true, false, true, true};
+        var names = new VValue[scores.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = VValue.value(stringType, "record " + i, env);
+        }
+        var batch = BatchContext.builder(evaluationSpec, scores.length)
+                .addDoubles("score", doubleType, scores)
+                .addBooleans("eligible", boolType, eligible)
+                .addValues("name", names)
+                .build(env);
+        var result = BatchEvaluator.evaluateBatch(resolved.get(), batch);
+        Assertions.assertEquals(scores.length, result.size());
+        Assertions.assertEquals(2, calls.calls());
+        for (int i = 0; i < scores.length; i++) {
+            Assertions.assertEquals(resolved.get().evaluate(batch.row(i)), result.get(i, env));
+        }
+
+        var doubled = VExpression.functionApplication(multiplyFunction, Map.of("a", VExpression.variable("score"), "b", VExpression.value(doubleType, 2.0))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(doubled.isPresent());
+        var doubledColumn = Assertions.assertInstanceOf(Column.DoubleColumn.class, BatchEvaluator.evaluateBatch(doubled.get(), batch));
+        Assertions.assertArrayEquals(new double[]{2.0, 12.0, 15.0, 40.0, 6.0}, doubledColumn.values());
+    }
+
+    @Test
+    public void parallelBatchEvaluationKeepsRowOrder() {
+        var doubleType = VType.create(TypeToken.of(Double.class));
+        var stringType = VType.create(TypeToken.of(String.class));
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), doubleType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() + (Double) a.get("b").value(), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleBinary("a", "b", Double::sum));
+        var describeFunction = new VFunctionDefinition("describe", new VFunctionSignature(Map.of("a", doubleType), stringType), (ctx, sig, a) -> VValue.value(sig.outputType(), "value " + a.get("a").value(), ctx.env()));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("x", doubleType));
+        var env = new VEnvironmentImpl();
+        env.registerType("double", doubleType);
+        env.registerType("string", stringType);
+        var sum = VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("x"), "b", VExpression.value(doubleType, 0.5))).resolveTypes(env, evaluationSpec).result();
+        var description = VExpression.functionApplication(describeFunction, Map.of("a", VExpression.variable("x"))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(sum.isPresent());
+        Assertions.assertTrue(description.isPresent());
+
+        var xs = new double[10_001];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i;
+        }
+        var batch = BatchContext.builder(evaluationSpec, xs.length)
+                .addDoubles("x", doubleType, xs)
+                .build(env);
+
+        var sums = Assertions.assertInstanceOf(Column.DoubleColumn.class, BatchEvaluator.evaluateBatch(sum.get(), batch, 128));
+        Assertions.assertArrayEquals(((Column.DoubleColumn) BatchEvaluator.evaluateBatch(sum.get(), batch)).values(), sums.values());
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var descriptions = BatchEvaluator.evaluateBatch(description.get(), batch, 1000, executor);
+            Assertions.assertEquals(xs.length, descriptions.size());
+            for (int i = 0; i < xs.length; i++) {
+                Assertions.assertEquals("value " + xs[i], descriptions.get(i, env).value());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchEvaluator.evaluateBatch(sum.get(), batch, 0));
+    }
+
+    @Test
+    public void batchEvaluationOnlyEvaluatesInputsForRowsThatAskForThem() {
+        var doubleType = VType.create(TypeToken.of(Double.class));
+        var calls = new CallCounter();
+        var signature = new VFunctionSignature(Map.of("a", doubleType, "fallback", doubleType), doubleType);
+        var orElseFunction = new VFunctionDefinition("or-else", signature, (ctx, sig, a) -> (Double) a.get("a").value() >= 0 ? a.get("a") : a.get("fallback"))
+                .withStrictInputs("a")
+                .asPure();
+        var flipFunction = new VFunctionDefinition("flip", new VFunctionSignature(Map.of("a", doubleType), doubleType), calls.count((ctx, sig, a) -> {
+            if ((Double) a.get("a").value() >= 0) {
+                throw new AssertionError("fallback evaluated for a row that did not ask for it");
+            }
+
+            return VValue.value(sig.outputType(), -(Double) a.get("a").value(), ctx.env());
+        })).asPure();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("x", doubleType));
+        var env = new VEnvironmentImpl();
+        env.registerType("double", doubleType);
+        var program = VExpression.functionApplication(orElseFunction, Map.of(
+                "a", VExpression.variable("x"),
+                "fallback", VExpression.functionApplication(flipFunction, Map.of("a", VExpression.variable("x"))))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(program.isPresent());
+
+        var batch = BatchContext.builder(evaluationSpec, 4)
+                .addDoubles("x", doubleType, new double[]{1.0, -2.0, 3.0, -4.0})
+                .build(env);
+        var result = BatchEvaluator.evaluateBatch(program.get(), batch);
+        for (int i = 0; i < result.size(); i++) {
+            Assertions.assertEquals(i + 1.0, result.get(i, env).value());
+        }
+        Assertions.assertEquals(2, calls.calls());
+    }
+
+    @Test
+    public void batchKernelsAreVectorisedOnlyWithTheVectorModule() {
+        Assertions.assertEquals(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(), BatchEvaluator.isVectorised());
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.williambl.vampilang.lang.test;
+
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// counts how many times the functions it wraps are called
+final class CallCounter {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    VFunctionDefinition.Func count(VFunctionDefinition.Func function) {
+        return (ctx, sig, inputs) -> {
+            this.calls.incrementAndGet();
+            return function.apply(ctx, sig, inputs);
+        };
+    }
+
+    int calls() {
+        return this.calls.get();
+    }
+
+    void reset() {
+        this.calls.set(0);
+    }
+}
@@ -0,0 +1,457 @@
+package com.williambl.vampilang.lang.test;
+
+import com.google.common.reflect.TypeToken;
+import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.compile.HiddenClassCompiler;
+import com.williambl.vampilang.lang.compile.MemoisedExpression;
+import com.williambl.vampilang.lang.compile.RuleSet;
+import com.williambl.vampilang.lang.compile.TieredExecution;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
+import com.williambl.vampilang.lang.type.VType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
+
+public class CompilationTest {
+    @Test
+    public void compiledProgramMatchesInterpreter() {
+        var intType = VType.create();
+        var doubleType = VType.create();
+        var numType = VType.createTemplate(intType, doubleType);
+        var boolType = VType.create();
+        var anyType = VType.createTopTemplate();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", numType, "b", numType), numType), (ctx, sig, a) -> VValue.value(sig.outputType(), ((Number) a.get("a").value()).doubleValue() + ((Number) a.get("b").value()).doubleValue(), ctx.env()));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", anyType, "b", anyType), anyType), (ctx, sig, a) -> VValue.value(sig.outputType(), (boolean) a.get("predicate").value() ? a.get("a").value() : a.get("b").value(), ctx.env()));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType, "var2", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("double", doubleType);
+        env.registerType("number", numType);
+        env.registerType("bool", boolType);
+        env.registerType("any", anyType);
+        env.registerFunction(addFunction);
+        env.registerFunction(ifElseFunction);
+        var program = VExpression.functionApplication(ifElseFunction, Map.of(
+                "predicate", VExpression.functionApplication(ifElseFunction, Map.of(
+                        "predicate", VExpression.value(boolType, true),
+                        "a", VExpression.value(boolType, true),
+                        "b", VExpression.value(boolType, false))),
+                "a", VExpression.functionApplication(addFunction, Map.of(
+                        "a", VExpression.variable("var1"),
+                        "b", VExpression.variable("var2"))),
+                "b", VExpression.variable("var1")));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var compiled = resolved.get().compile();
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).addVariable("var2", VValue.value(intType, 10, env)).build(env);
+        var result = Assertions.assertDoesNotThrow(() -> compiled.evaluate(ctx));
+        Assertions.assertEquals(resolved.get().evaluate(ctx), result);
+        Assertions.assertEquals(intType, result.type());
+        Assertions.assertEquals(15, ((Number) result.value()).intValue());
+    }
+
+    @Test
+    public void compiledProgramEvaluatesInputsLazilyAndOnce() {
+        var intType = VType.create();
+        var boolType = VType.create();
+        var anyType = VType.createTopTemplate();
+        var calls = new CallCounter();
+        var countFunction = new VFunctionDefinition("count", new VFunctionSignature(Map.of(), intType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), calls.calls(), ctx.env())));
+        var twiceFunction = new VFunctionDefinition("twice", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("a").value(), ctx.env()));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", anyType, "b", anyType), anyType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("bool", boolType);
+        var program = VExpression.functionApplication(ifElseFunction, Map.of(
+                "predicate", VExpression.value(boolType, true),
+                "a", VExpression.functionApplication(twiceFunction, Map.of("a", VExpression.functionApplication(countFunction, Map.of()))),
+                "b", VExpression.functionApplication(countFunction, Map.of())));
+        var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var result = resolved.get().compile().evaluate(new EvaluationContext(env));
+        Assertions.assertEquals(2, result.value());
+        Assertions.assertEquals(1, calls.calls());
+    }
+
+    @Test
+    public void compiledFunctionApplicationsReuseArgumentFrames() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var seen = new ArrayList<VFunctionDefinition.Inputs>();
+        var incrementFunction = new VFunctionDefinition("increment", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> {
+            seen.add(a);
+            return VValue.value(sig.outputType(), (Integer) a.get("a").value() + 1, ctx.env());
+        });
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(incrementFunction, Map.of("a", VExpression.functionApplication(incrementFunction, Map.of("a", VExpression.value(intType, 1)))));
+        var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var compiled = resolved.get().compile();
+        Assertions.assertEquals(3, compiled.evaluate(new EvaluationContext(env)).value());
+        Assertions.assertEquals(3, compiled.evaluate(new EvaluationContext(env)).value());
+        Assertions.assertEquals(4, seen.size());
+        Assertions.assertNotSame(seen.get(0), seen.get(1));
+        Assertions.assertSame(seen.get(0), seen.get(2));
+        Assertions.assertSame(seen.get(1), seen.get(3));
+        Assertions.assertThrows(IllegalStateException.class, () -> seen.get(0).get("a"));
+    }
+
+    @Test
+    public void compiledProgramConstructsObjectsAndLists() {
+        record Pair(int a, int b) {
+        }
+        var intType = VType.create();
+        var doubleType = VType.create();
+        var numType = VType.createTemplate(intType, doubleType);
+        var pairType = VType.create(TypeToken.of(Pair.class), Map.of("a", intType, "b", intType), map -> new Pair(map.get("a").<Number>getUnchecked().intValue(), map.get("b").<Number>getUnchecked().intValue()));
+        var bareListType = VType.create();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("double", doubleType);
+        env.registerType("number", numType);
+        env.registerType("pair", pairType);
+        env.registerType("list", bareListType);
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).build(env);
+
+        var object = VExpression.object("pair", Map.of("a", VExpression.variable("var1"), "b", VExpression.value(intType, 2)))
+                .resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(object.isPresent());
+        var objectResult = object.get().compile().evaluate(ctx);
+        Assertions.assertEquals(pairType, objectResult.type());
+        Assertions.assertEquals(new Pair(5, 2), objectResult.value());
+
+        var list = VExpression.list(List.of(
+                VExpression.value(intType, 3),
+                VExpression.value(doubleType, 10.0),
+                VExpression.variable("var1"))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(list.isPresent());
+        var listResult = list.get().compile().evaluate(ctx);
+        Assertions.assertEquals(list.get().evaluate(ctx), listResult);
+        Assertions.assertEquals(env.listType().with(0, numType), listResult.type());
+    }
+
+    @Test
+    public void hiddenClassCompiledProgramMatchesInterpreter() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        var anyType = VType.createTopTemplate();
+        IntBinaryOperator add = Integer::sum;
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), add.applyAsInt((Integer) a.get("a").value(), (Integer) a.get("b").value()), ctx.env()))
+                .withIntrinsic(VFunctionDefinition.Intrinsic.of(List.of("a", "b"), IntBinaryOperator.class, add));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", anyType, "b", anyType), anyType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType, "var2", boolType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("bool", boolType);
+        var program = VExpression.functionApplication(ifElseFunction, Map.of(
+                "predicate", VExpression.variable("var2"),
+                "a", VExpression.functionApplication(addFunction, Map.of(
+                        "a", VExpression.functionApplication(addFunction, Map.of(
+                                "a", VExpression.variable("var1"),
+                                "b", VExpression.value(intType, 3))),
+                        "b", VExpression.value(intType, 10))),
+                "b", VExpression.variable("var1")));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var compiled = HiddenClassCompiler.compile(resolved.get());
+        Assertions.assertTrue(compiled.getClass().isHidden());
+        for (var predicate : List.of(true, false)) {
+            var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).addVariable("var2", VValue.value(boolType, predicate, env)).build(env);
+            var result = compiled.evaluate(ctx);
+            Assertions.assertEquals(resolved.get().evaluate(ctx), result);
+            Assertions.assertEquals(predicate ? 18 : 5, result.value());
+        }
+    }
+
+    @Test
+    public void compiledProgramChainsSpecialisedFunctions() {
+        var doubleType = VType.create(TypeToken.of(Double.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        VFunctionDefinition.Func unused = (ctx, sig, a) -> {
+            throw new AssertionError("generic implementation should not be used");
+        };
+        var multiplyFunction = new VFunctionDefinition("multiply", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), doubleType), unused)
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleBinary("a", "b", (a, b) -> a * b));
+        var negateFunction = new VFunctionDefinition("negate", new VFunctionSignature(Map.of("operand", doubleType), doubleType), unused)
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleUnary("operand", a -> -a));
+        var lessThanFunction = new VFunctionDefinition("<", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), boolType), unused)
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleComparison("a", "b", (a, b) -> a < b));
+        var notFunction = new VFunctionDefinition("not", new VFunctionSignature(Map.of("operand", boolType), boolType), unused)
+                .withSpecialisation(new VFunctionDefinition.Specialisation.BooleanUnary("operand", a -> !a));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", doubleType));
+        var env = new VEnvironmentImpl();
+        env.registerType("double", doubleType);
+        env.registerType("bool", boolType);
+        var program = VExpression.functionApplication(notFunction, Map.of(
+                "operand", VExpression.functionApplication(lessThanFunction, Map.of(
+                        "a", VExpression.functionApplication(negateFunction, Map.of(
+                                "operand", VExpression.functionApplication(multiplyFunction, Map.of(
+                                        "a", VExpression.variable("var1"),
+                                        "b", VExpression.value(doubleType, 2.0))))),
+                        "b", VExpression.value(doubleType, -5.0)))));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var compiled = resolved.get().compile();
+        var hiddenClassCompiled = HiddenClassCompiler.compile(resolved.get());
+        for (var input : List.of(1.0, 2.5, 3.0)) {
+            var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(doubleType, input, env)).build(env);
+            var expected = VValue.value(boolType, !(-(input * 2.0) < -5.0), env);
+            Assertions.assertEquals(expected, compiled.evaluate(ctx));
+            Assertions.assertEquals(expected, hiddenClassCompiled.evaluate(ctx));
+        }
+    }
+
+    @Test
+    public void compilesDeeplyNestedConditionalsUnderArithmeticOnce() {
+        var doubleType = VType.create(TypeToken.of(Double.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), doubleType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() + (Double) a.get("b").value(), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleBinary("a", "b", Double::sum));
+        var greaterThanFunction = new VFunctionDefinition(">", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), boolType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() > (Double) a.get("b").value(), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleComparison("a", "b", (a, b) -> a > b));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", doubleType, "b", doubleType), doubleType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.Conditional("predicate", "a", "b"));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", doubleType));
+        var env = new VEnvironmentImpl();
+        env.registerType("double", doubleType);
+        env.registerType("bool", boolType);
+        VExpression program = VExpression.variable("var1");
+        for (int i = 0; i < 64; i++) {
+            program = VExpression.functionApplication(addFunction, Map.of(
+                    "a", VExpression.functionApplication(ifElseFunction, Map.of(
+                            "predicate", VExpression.functionApplication(greaterThanFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.value(doubleType, (double) i))),
+                            "a", program,
+                            "b", VExpression.value(doubleType, (double) -i))),
+                    "b", VExpression.value(doubleType, 1.0)));
+        }
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var compiled = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> resolved.get().compile());
+        for (var input : List.of(-1.0, 10.5, 100.0)) {
+            var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(doubleType, input, env)).build(env);
+            Assertions.assertEquals(resolved.get().evaluate(ctx), compiled.evaluate(ctx));
+        }
+    }
+
+    @Test
+    public void compiledProgramEvaluatesSharedSubexpressionsOnce() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var calls = new CallCounter();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env()))).asPure();
+        var multiplyFunction = new VFunctionDefinition("multiply", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() * (Integer) a.get("b").value(), ctx.env())).asPure();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType, "var2", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(multiplyFunction, Map.of(
+                "a", VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.variable("var2"))),
+                "b", VExpression.functionApplication(multiplyFunction, Map.of(
+                        "a", VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.variable("var2"))),
+                        "b", VExpression.value(intType, 2)))));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var shared = SubexpressionSharing.share(resolved.get());
+        Assertions.assertEquals(resolved.get(), shared);
+        Assertions.assertEquals(1, SubexpressionSharing.sharedNodes(shared).size());
+        for (var compiled : List.of(shared.compile(), HiddenClassCompiler.compile(shared))) {
+            calls.reset();
+            var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 2, env)).addVariable("var2", VValue.value(intType, 3, env)).build(env);
+            Assertions.assertEquals(50, compiled.evaluate(ctx).value());
+            Assertions.assertEquals(1, calls.calls());
+            var otherCtx = ctx.with("var1", VValue.value(intType, 5, env));
+            Assertions.assertEquals(128, compiled.evaluate(otherCtx).value());
+            Assertions.assertEquals(2, calls.calls());
+        }
+    }
+
+    @Test
+    public void compiledProgramKeepsSharedValuesPerEvaluation() throws Exception {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var calls = new CallCounter();
+        var evaluations = new AtomicReference<Rendezvous>();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env()))).asPure();
+        var twiceFunction = new VFunctionDefinition("twice", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() * 2, ctx.env())).asPure();
+        var multiplyFunction = new VFunctionDefinition("multiply", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() * (Integer) a.get("b").value(), ctx.env())).asPure();
+        // both evaluations have worked out their first use of the shared nodes before either gets to the others
+        var combineFunction = new VFunctionDefinition("combine", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> {
+            var first = (Integer) a.get("a").value();
+            evaluations.get().arrive();
+            return VValue.value(sig.outputType(), first * (Integer) a.get("b").value(), ctx.env());
+        });
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType, "var2", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        Supplier<VExpression> add = () -> VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.variable("var2")));
+        var program = VExpression.functionApplication(combineFunction, Map.of(
+                "a", VExpression.functionApplication(twiceFunction, Map.of("a", add.get())),
+                "b", VExpression.functionApplication(multiplyFunction, Map.of(
+                        "a", VExpression.functionApplication(twiceFunction, Map.of("a", add.get())),
+                        "b", add.get()))));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var shared = SubexpressionSharing.share(resolved.get());
+        Assertions.assertEquals(2, SubexpressionSharing.sharedNodes(shared).size());
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 2, env)).addVariable("var2", VValue.value(intType, 3, env)).build(env);
+        var otherCtx = ctx.with("var1", VValue.value(intType, 5, env));
+        var pool = Executors.newFixedThreadPool(2);
+        try {
+            for (var compiled : List.of(shared.compile(), HiddenClassCompiler.compile(shared))) {
+                calls.reset();
+                evaluations.set(new Rendezvous(2));
+                var first = CompletableFuture.supplyAsync(() -> compiled.evaluate(ctx), pool);
+                var second = CompletableFuture.supplyAsync(() -> compiled.evaluate(otherCtx), pool);
+                Assertions.assertEquals(500, first.get(10, TimeUnit.SECONDS).value());
+                Assertions.assertEquals(2048, second.get(10, TimeUnit.SECONDS).value());
+                Assertions.assertEquals(2, calls.calls());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void tieredExpressionIsPromotedInTheBackgroundOnceHot() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        IntBinaryOperator add = Integer::sum;
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), add.applyAsInt((Integer) a.get("a").value(), (Integer) a.get("b").value()), ctx.env()))
+                .withIntrinsic(VFunctionDefinition.Intrinsic.of(List.of("a", "b"), IntBinaryOperator.class, add));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var resolved = VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.value(intType, 1))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var tasks = new ArrayList<Runnable>();
+        var tiered = new TieredExecution(3, tasks::add).manage(resolved.get());
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).build(env);
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(6, tiered.evaluate(ctx).value());
+        }
+        Assertions.assertTrue(tasks.isEmpty());
+        Assertions.assertEquals(6, tiered.evaluate(ctx).value());
+        Assertions.assertEquals(1, tasks.size());
+        Assertions.assertFalse(tiered.isPromoted());
+        Assertions.assertEquals(6, tiered.evaluate(ctx).value());
+        tasks.get(0).run();
+        Assertions.assertTrue(tiered.isPromoted());
+        Assertions.assertEquals(6, tiered.evaluate(ctx).value());
+        Assertions.assertEquals(4, tiered.interpretedInvocations());
+        Assertions.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void tieredExpressionKeepsInterpretingWhenPromotionIsRejected() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env()));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var resolved = VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.value(intType, 1))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var attempts = new int[]{0};
+        var accepting = new boolean[]{false};
+        var tiered = new TieredExecution(2, task -> {
+            attempts[0]++;
+            if (!accepting[0]) {
+                throw new RejectedExecutionException("pool is full");
+            }
+
+            task.run();
+        }).manage(resolved.get());
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).build(env);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(6, Assertions.assertDoesNotThrow(() -> tiered.evaluate(ctx)).value());
+        }
+        Assertions.assertEquals(2, attempts[0]);
+        Assertions.assertFalse(tiered.isPromoted());
+        accepting[0] = true;
+        Assertions.assertEquals(6, tiered.evaluate(ctx).value());
+        Assertions.assertEquals(3, attempts[0]);
+        Assertions.assertTrue(tiered.isPromoted());
+    }
+
+    @Test
+    public void ruleSetEvaluatesSharedSubexpressionsOncePerContext() {
+        var stringType = VType.create(TypeToken.of(String.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        var calls = new CallCounter();
+        var equalsFunction = new VFunctionDefinition("==", new VFunctionSignature(Map.of("a", stringType, "b", stringType), boolType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), Objects.equals(a.get("a").value(), a.get("b").value()), ctx.env()))).asPure();
+        var andFunction = new VFunctionDefinition("and", new VFunctionSignature(Map.of("a", boolType, "b", boolType), boolType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Boolean) a.get("a").value() && (Boolean) a.get("b").value(), ctx.env())).asPure();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("country", stringType, "tier", stringType));
+        var env = new VEnvironmentImpl();
+        env.registerType("string", stringType);
+        env.registerType("bool", boolType);
+        var rules = new LinkedHashMap<String, VExpression>();
+        rules.put("gb", VExpression.functionApplication(equalsFunction, Map.of("a", VExpression.variable("country"), "b", VExpression.value(stringType, "GB"))));
+        rules.put("gb-gold", VExpression.functionApplication(andFunction, Map.of(
+                "a", VExpression.functionApplication(equalsFunction, Map.of("a", VExpression.variable("country"), "b", VExpression.value(stringType, "GB"))),
+                "b", VExpression.functionApplication(equalsFunction, Map.of("a", VExpression.variable("tier"), "b", VExpression.value(stringType, "gold"))))));
+        rules.put("gold", VExpression.functionApplication(equalsFunction, Map.of("a", VExpression.variable("tier"), "b", VExpression.value(stringType, "gold"))));
+        rules.put("fr", VExpression.functionApplication(equalsFunction, Map.of("a", VExpression.variable("country"), "b", VExpression.value(stringType, "FR"))));
+        rules.replaceAll((name, rule) -> rule.resolveTypes(env, evaluationSpec).result().orElseThrow());
+        var ruleSet = new RuleSet<>(rules);
+        Assertions.assertEquals(4, ruleSet.size());
+        Assertions.assertEquals(2, ruleSet.sharedNodeCount());
+
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("country", VValue.value(stringType, "GB", env)).addVariable("tier", VValue.value(stringType, "gold", env)).build(env);
+        Assertions.assertEquals(Set.of("gb", "gb-gold", "gold"), ruleSet.evaluate(ctx));
+        Assertions.assertEquals(3, calls.calls());
+        var otherCtx = ctx.with("country", VValue.value(stringType, "FR", env));
+        Assertions.assertEquals(Set.of("gold", "fr"), ruleSet.evaluate(otherCtx));
+        Assertions.assertEquals(6, calls.calls());
+    }
+
+    @Test
+    public void memoisedExpressionCachesResultsByVariableValues() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var calls = new CallCounter();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env())));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType, "var2", intType, "unused", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(addFunction.asPure(), Map.of("a", VExpression.variable("var1"), "b", VExpression.variable("var2")));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var memoised = MemoisedExpression.of(resolved.get(), 2);
+        Assertions.assertTrue(memoised.isMemoised());
+
+        var ctx = EvaluationContext.builder(evaluationSpec)
+                .addVariable("var1", VValue.value(intType, 1, env))
+                .addVariable("var2", VValue.value(intType, 2, env))
+                .addVariable("unused", VValue.value(intType, 0, env))
+                .build(env);
+        Assertions.assertEquals(3, memoised.evaluate(ctx).value());
+        Assertions.assertEquals(3, memoised.evaluate(ctx.with("unused", VValue.value(intType, 5, env))).value());
+        Assertions.assertEquals(1, calls.calls());
+        Assertions.assertEquals(new MemoisedExpression.CacheStatistics(1, 1, 0), memoised.statistics());
+
+        Assertions.assertEquals(4, memoised.evaluate(ctx.with("var1", VValue.value(intType, 2, env))).value());
+        Assertions.assertEquals(5, memoised.evaluate(ctx.with("var1", VValue.value(intType, 3, env))).value());
+        Assertions.assertEquals(3, calls.calls());
+        Assertions.assertEquals(new MemoisedExpression.CacheStatistics(1, 3, 1), memoised.statistics());
+
+        var impure = VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("var1"), "b", VExpression.variable("var2"))).resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(impure.isPresent());
+        var notMemoised = MemoisedExpression.of(impure.get(), 2);
+        Assertions.assertFalse(notMemoised.isMemoised());
+        calls.reset();
+        notMemoised.evaluate(ctx);
+        notMemoised.evaluate(ctx);
+        Assertions.assertEquals(2, calls.calls());
+    }
+}
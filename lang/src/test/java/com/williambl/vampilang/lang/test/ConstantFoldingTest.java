@@ -0,0 +1,64 @@
+package com.williambl.vampilang.lang.test;
+
+import com.google.common.reflect.TypeToken;
+import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
+import com.williambl.vampilang.lang.optimise.ConstantFolding;
+import com.williambl.vampilang.lang.type.VType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class ConstantFoldingTest {
+    @Test
+    public void foldsPureApplicationsOfValues() {
+        var doubleType = VType.create(TypeToken.of(Double.class));
+        var calls = new CallCounter();
+        var multiplyFunction = new VFunctionDefinition("multiply", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), doubleType), calls.count((ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() * (Double) a.get("b").value(), ctx.env()))).asPure();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", doubleType, "b", doubleType), doubleType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Double) a.get("a").value() + (Double) a.get("b").value(), ctx.env())).asPure();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", doubleType));
+        var env = new VEnvironmentImpl();
+        env.registerType("double", doubleType);
+        var program = VExpression.functionApplication(addFunction, Map.of(
+                "a", VExpression.variable("var1"),
+                "b", VExpression.functionApplication(multiplyFunction, Map.of(
+                        "a", VExpression.value(doubleType, 2.0),
+                        "b", VExpression.value(doubleType, 3.5)))));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var folded = ConstantFolding.fold(resolved.get(), env);
+        Assertions.assertEquals(1, calls.calls());
+        var app = Assertions.assertInstanceOf(VExpression.FunctionApplication.class, folded);
+        Assertions.assertEquals(new VExpression.Value(VValue.value(doubleType, 7.0, env)), app.inputs().get("b"));
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(doubleType, 1.0, env)).build(env);
+        var result = folded.evaluate(ctx);
+        Assertions.assertEquals(1, calls.calls());
+        Assertions.assertEquals(resolved.get().evaluate(ctx), result);
+    }
+
+    @Test
+    public void doesNotFoldImpureOrFailingApplications() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        int[] counter = {0};
+        var nextFunction = new VFunctionDefinition("next", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + counter[0]++, ctx.env()));
+        var divideFunction = new VFunctionDefinition("divide", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() / (Integer) a.get("b").value(), ctx.env())).asPure();
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("list", VType.create());
+        for (var program : List.of(
+                VExpression.functionApplication(nextFunction, Map.of("a", VExpression.value(intType, 1))),
+                VExpression.functionApplication(divideFunction, Map.of("a", VExpression.value(intType, 1), "b", VExpression.value(intType, 0))))) {
+            var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+            Assertions.assertTrue(resolved.isPresent());
+            Assertions.assertEquals(resolved.get(), ConstantFolding.fold(resolved.get(), env));
+        }
+
+        var list = VExpression.list(List.of(VExpression.value(intType, 1), VExpression.value(intType, 2))).resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(list.isPresent());
+        Assertions.assertEquals(new VExpression.Value(list.get().evaluate(new EvaluationContext(env))), ConstantFolding.fold(list.get(), env));
+        Assertions.assertEquals(0, counter[0]);
+    }
+}
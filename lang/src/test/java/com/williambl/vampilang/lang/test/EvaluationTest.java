@@ -2,15 +2,27 @@ package com.williambl.vampilang.lang.test;
 
 import com.google.common.reflect.TypeToken;
 import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.evaluation.AsyncEvaluator;
+import com.williambl.vampilang.lang.evaluation.ExpressionProcessor;
+import com.williambl.vampilang.lang.evaluation.IterativeEvaluator;
+import com.williambl.vampilang.lang.evaluation.LiveExpression;
+import com.williambl.vampilang.lang.evaluation.ParallelEvaluator;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
 import com.williambl.vampilang.lang.function.VFunctionSignature;
 import com.williambl.vampilang.lang.type.VType;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 
 public class EvaluationTest {
     @Test
@@ -139,6 +151,24 @@ public class EvaluationTest {
         Assertions.assertEquals(15, ((Number) result.value()).intValue());
     }
 
+    @Test
+    public void correctlyEvaluatesVariablesBySlotAndByName() {
+        var intType = VType.create();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var2", intType, "var1", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var resolved = VExpression.variable("var2").resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        Assertions.assertEquals(1, ((VExpression.VariableRef) resolved.get()).slot());
+        var slotted = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).addVariable("var2", VValue.value(intType, 10, env)).build(env);
+        var named = new EvaluationContext(Map.of("var1", VValue.value(intType, 5, env), "var2", VValue.value(intType, 10, env)), env);
+        Assertions.assertEquals(slotted, named);
+        Assertions.assertEquals(10, resolved.get().evaluate(slotted).value());
+        Assertions.assertEquals(10, resolved.get().evaluate(named).value());
+        Assertions.assertEquals(20, resolved.get().evaluate(slotted.with("var2", VValue.value(intType, 20, env))).value());
+        Assertions.assertEquals(10, resolved.get().compile().evaluate(slotted).value());
+    }
+
     @Test
     public void correctlyEvaluatesProgramWithObjectLiterals() {
         class MySpecialObject { // inline records when
@@ -228,4 +258,371 @@ public class EvaluationTest {
         Assertions.assertEquals(env.listType().with(0, numType), result.type());
         Assertions.assertEquals(List.of(VValue.value(intType, 3, env), VValue.value(doubleType, 10.0, env), VValue.value(intType, 5, env)), result.value());
     }
+
+    @Test
+    public void variableRefsResolvedToDifferentSlotsAreEqual() {
+        var intType = VType.create();
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var first = VExpression.variable("var2").resolveTypes(env, new EvaluationContext.Spec(Map.of("var2", intType))).result();
+        var second = VExpression.variable("var2").resolveTypes(env, new EvaluationContext.Spec(Map.of("var1", intType, "var2", intType))).result();
+        Assertions.assertTrue(first.isPresent());
+        Assertions.assertTrue(second.isPresent());
+        Assertions.assertNotEquals(((VExpression.VariableRef) first.get()).slot(), ((VExpression.VariableRef) second.get()).slot());
+        Assertions.assertEquals(first.get(), second.get());
+        Assertions.assertEquals(first.get().hashCode(), second.get().hashCode());
+        Assertions.assertEquals(new VExpression.VariableRef("var2", intType), first.get());
+    }
+
+    @Test
+    public void iterativelyEvaluatesVeryDeepProgram() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        var incrementFunction = new VFunctionDefinition("increment", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + 1, ctx.env()));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", intType, "b", intType), intType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.Conditional("predicate", "a", "b"));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("bool", boolType);
+        VExpression program = new VExpression.Value(VValue.value(intType, 0, env));
+        for (int i = 0; i < 100_000; i++) {
+            program = i % 2 == 0
+                    ? new VExpression.FunctionApplication(incrementFunction, incrementFunction.signature(), Map.of("a", program))
+                    : new VExpression.FunctionApplication(ifElseFunction, ifElseFunction.signature(), Map.of(
+                            "predicate", new VExpression.Value(VValue.value(boolType, false, env)),
+                            "a", new VExpression.FunctionApplication(ifElseFunction, ifElseFunction.signature(), Map.of()),
+                            "b", program));
+        }
+        var result = IterativeEvaluator.evaluate(program, new EvaluationContext(env));
+        Assertions.assertEquals(intType, result.type());
+        Assertions.assertEquals(50_000, result.value());
+    }
+
+    @Test
+    public void iterativelyEvaluatesProgramWithVariables() {
+        var intType = VType.create();
+        var boolType = VType.create();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env()));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", intType, "b", intType), intType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("var1", intType, "var2", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("bool", boolType);
+        env.registerFunction(addFunction);
+        env.registerFunction(ifElseFunction);
+        var program = VExpression.functionApplication(ifElseFunction, Map.of(
+                "predicate", VExpression.value(boolType, true),
+                "a", VExpression.functionApplication(addFunction, Map.of(
+                        "a", VExpression.variable("var1"),
+                        "b", VExpression.variable("var2"))),
+                "b", VExpression.variable("var1")));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var ctx = EvaluationContext.builder(evaluationSpec).addVariable("var1", VValue.value(intType, 5, env)).addVariable("var2", VValue.value(intType, 10, env)).build(env);
+        Assertions.assertEquals(resolved.get().evaluate(ctx), IterativeEvaluator.evaluate(resolved.get(), ctx));
+        Assertions.assertEquals(15, IterativeEvaluator.evaluate(resolved.get(), ctx).value());
+    }
+
+    @Test
+    public void iterativelyCallsEachFunctionOnce() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var counter = new CallCounter();
+        var signature = new VFunctionSignature(Map.of("a", intType, "b", intType), intType);
+        var addFunction = new VFunctionDefinition("add", signature, counter.count((ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env())))
+                .withStrictInputs("a");
+        var firstFunction = new VFunctionDefinition("first", signature, counter.count((ctx, sig, a) -> a.get("a"))).withLazyInputs("b");
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = new VExpression.FunctionApplication(firstFunction, signature, Map.of(
+                "a", new VExpression.FunctionApplication(addFunction, signature, Map.of(
+                        "a", new VExpression.Value(VValue.value(intType, 1, env)),
+                        "b", new VExpression.FunctionApplication(addFunction, signature, Map.of(
+                                "a", new VExpression.Value(VValue.value(intType, 2, env)),
+                                "b", new VExpression.Value(VValue.value(intType, 3, env)))))),
+                // never asked for, so never evaluated
+                "b", new VExpression.FunctionApplication(firstFunction, signature, Map.of())));
+        Assertions.assertEquals(6, IterativeEvaluator.evaluate(program, new EvaluationContext(env)).value());
+        Assertions.assertEquals(3, counter.calls());
+    }
+
+    @Test
+    public void resolvesTypesOfVeryDeepProgram() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var incrementFunction = new VFunctionDefinition("increment", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + 1, ctx.env()));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.value(intType, 0);
+        for (int i = 0; i < 100_000; i++) {
+            program = VExpression.functionApplication(incrementFunction, Map.of("a", program));
+        }
+        var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(resolved.isPresent());
+        Assertions.assertEquals(100_000, IterativeEvaluator.evaluate(resolved.get(), new EvaluationContext(env)).value());
+        var unresolvable = VExpression.functionApplication(incrementFunction, Map.of("a", VExpression.variable("missing")));
+        for (int i = 0; i < 100_000; i++) {
+            unresolvable = VExpression.functionApplication(incrementFunction, Map.of("a", unresolvable));
+        }
+        Assertions.assertTrue(unresolvable.resolveTypes(env, new EvaluationContext.Spec()).error().isPresent());
+    }
+
+    @Test
+    public void asynchronouslyEvaluatesInputsConcurrently() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var boolType = VType.create(TypeToken.of(Boolean.class));
+        var lookups = new Rendezvous(3);
+        var lookupFunction = VFunctionDefinition.async("lookup", new VFunctionSignature(Map.of("key", intType), intType), (ctx, sig, a) -> {
+            lookups.arrive();
+            return CompletableFuture.completedFuture(VValue.value(sig.outputType(), (Integer) a.get("key").value() * 10, ctx.env()));
+        });
+        var sumFunction = new VFunctionDefinition("sum", new VFunctionSignature(Map.of("a", intType, "b", intType, "c", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value() + (Integer) a.get("c").value(), ctx.env()));
+        var ifElseFunction = new VFunctionDefinition("if-else", new VFunctionSignature(Map.of("predicate", boolType, "a", intType, "b", intType), intType), (ctx, sig, a) -> (boolean) a.get("predicate").value() ? a.get("a") : a.get("b"))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.Conditional("predicate", "a", "b"));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        env.registerType("bool", boolType);
+        var program = VExpression.functionApplication(sumFunction, Map.of(
+                "a", VExpression.functionApplication(lookupFunction, Map.of("key", VExpression.value(intType, 1))),
+                "b", VExpression.functionApplication(lookupFunction, Map.of("key", VExpression.value(intType, 2))),
+                "c", VExpression.functionApplication(lookupFunction, Map.of("key", VExpression.value(intType, 3)))));
+        var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var result = AsyncEvaluator.evaluateAsync(resolved.get(), new EvaluationContext(env)).join();
+        Assertions.assertEquals(60, result.value());
+
+        var conditional = VExpression.functionApplication(ifElseFunction, Map.of(
+                "predicate", VExpression.value(boolType, true),
+                "a", VExpression.value(intType, 5),
+                "b", VExpression.functionApplication(lookupFunction, Map.of("key", VExpression.value(intType, 4))))).resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(conditional.isPresent());
+        Assertions.assertEquals(5, AsyncEvaluator.evaluateAsync(conditional.get(), new EvaluationContext(env)).join().value());
+        Assertions.assertTrue(lookups.allArrived());
+    }
+
+    @Test
+    public void evaluatesExpensiveSiblingsInParallel() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var siblings = new Rendezvous(2);
+        var threads = Collections.synchronizedSet(new HashSet<Thread>());
+        var expensiveFunction = new VFunctionDefinition("expensive", new VFunctionSignature(Map.of("a", intType), intType), (ctx, sig, a) -> {
+            siblings.arrive();
+            return VValue.value(sig.outputType(), (Integer) a.get("a").value() * 2, ctx.env());
+        }).withCost(1000).withStrictInputs("a").asPure();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> {
+            threads.add(Thread.currentThread());
+            return VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env());
+        }).withStrictInputs("a", "b").asPure();
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(addFunction, Map.of(
+                "a", VExpression.functionApplication(expensiveFunction, Map.of("a", VExpression.functionApplication(addFunction, Map.of("a", VExpression.value(intType, 1), "b", VExpression.value(intType, 2))))),
+                "b", VExpression.functionApplication(expensiveFunction, Map.of("a", VExpression.functionApplication(addFunction, Map.of("a", VExpression.value(intType, 3), "b", VExpression.value(intType, 4)))))));
+        var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(resolved.isPresent());
+        Assertions.assertEquals(2003, ParallelEvaluator.estimateCost(resolved.get()));
+
+        var pool = new ForkJoinPool(2);
+        try {
+            Assertions.assertEquals(20, ParallelEvaluator.evaluate(resolved.get(), new EvaluationContext(env), 100, pool).value());
+            Assertions.assertTrue(siblings.allArrived());
+            Assertions.assertTrue(threads.contains(Thread.currentThread()));
+            Assertions.assertEquals(2, threads.size());
+
+            threads.clear();
+            var cheap = VExpression.functionApplication(addFunction, Map.of(
+                    "a", VExpression.functionApplication(addFunction, Map.of("a", VExpression.value(intType, 1), "b", VExpression.value(intType, 2))),
+                    "b", VExpression.functionApplication(addFunction, Map.of("a", VExpression.value(intType, 3), "b", VExpression.value(intType, 4))))).resolveTypes(env, new EvaluationContext.Spec()).result();
+            Assertions.assertTrue(cheap.isPresent());
+            Assertions.assertEquals(10, ParallelEvaluator.evaluate(cheap.get(), new EvaluationContext(env), 100, pool).value());
+            Assertions.assertEquals(Set.of(Thread.currentThread()), threads);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelEvaluationOnlyStartsStrictInputs() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var calls = new CallCounter();
+        var expensiveFunction = new VFunctionDefinition("expensive", new VFunctionSignature(Map.of("a", intType), intType), calls.count((ctx, sig, a) -> {
+            if ((Integer) a.get("a").value() < 0) {
+                throw new IllegalArgumentException("negative input");
+            }
+
+            return VValue.value(sig.outputType(), (Integer) a.get("a").value() * 2, ctx.env());
+        })).withCost(1000).withStrictInputs("a").asPure();
+        var orElseFunction = new VFunctionDefinition("or-else", new VFunctionSignature(Map.of("a", intType, "fallback", intType), intType), (ctx, sig, a) -> (Integer) a.get("a").value() >= 0 ? a.get("a") : a.get("fallback"))
+                .withStrictInputs("a")
+                .asPure();
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(orElseFunction, Map.of(
+                "a", VExpression.functionApplication(expensiveFunction, Map.of("a", VExpression.value(intType, 1))),
+                "fallback", VExpression.functionApplication(expensiveFunction, Map.of("a", VExpression.value(intType, -1)))));
+        var resolved = program.resolveTypes(env, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(resolved.isPresent());
+
+        var pool = new ForkJoinPool(2);
+        try {
+            Assertions.assertEquals(2, ParallelEvaluator.evaluate(resolved.get(), new EvaluationContext(env), 100, pool).value());
+            Assertions.assertEquals(1, calls.calls());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void streamsResultsWithBackpressure() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> VValue.value(sig.outputType(), (Integer) a.get("a").value() + (Integer) a.get("b").value(), ctx.env()));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("x", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("x"), "b", VExpression.value(intType, 100)));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+
+        var processor = ExpressionProcessor.forVariables(resolved.get(), env);
+        long[] upstreamRequested = {0};
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                upstreamRequested[0] += n;
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        var results = new ArrayList<Object>();
+        boolean[] completed = {false};
+        Flow.Subscription[] downstream = {null};
+        processor.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                downstream[0] = subscription;
+            }
+
+            @Override
+            public void onNext(VValue item) {
+                results.add(item.value());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Assertions.fail(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+        Assertions.assertEquals(0, upstreamRequested[0]);
+
+        downstream[0].request(2);
+        Assertions.assertEquals(2, upstreamRequested[0]);
+        processor.onNext(Map.of("x", VValue.value(intType, 1, env)));
+        processor.onNext(Map.of("x", VValue.value(intType, 2, env)));
+        Assertions.assertEquals(List.of(101, 102), results);
+
+        downstream[0].request(3);
+        Assertions.assertEquals(5, upstreamRequested[0]);
+        processor.onNext(Map.of("x", VValue.value(intType, 3, env)));
+        processor.onComplete();
+        Assertions.assertEquals(List.of(101, 102, 103), results);
+        Assertions.assertTrue(completed[0]);
+    }
+
+    @Test
+    public void invalidRequestStopsStreamingQueuedResults() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("x", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var resolved = VExpression.variable("x").resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+
+        var processor = ExpressionProcessor.forVariables(resolved.get(), env);
+        boolean[] upstreamCancelled = {false};
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                upstreamCancelled[0] = true;
+            }
+        });
+        var results = new ArrayList<Object>();
+        var errors = new ArrayList<Throwable>();
+        Flow.Subscription[] downstream = {null};
+        processor.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                downstream[0] = subscription;
+            }
+
+            @Override
+            public void onNext(VValue item) {
+                results.add(item.value());
+                // an invalid request mid-delivery, racing with an upstream that has not seen the cancellation yet
+                downstream[0].request(0);
+                processor.onNext(Map.of("x", VValue.value(intType, 2, env)));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                Assertions.fail("stream should have ended with an error");
+            }
+        });
+
+        downstream[0].request(5);
+        processor.onNext(Map.of("x", VValue.value(intType, 1, env)));
+        Assertions.assertEquals(List.of(1), results);
+        Assertions.assertEquals(1, errors.size());
+        Assertions.assertInstanceOf(IllegalArgumentException.class, errors.get(0));
+        Assertions.assertTrue(upstreamCancelled[0]);
+    }
+
+    @Test
+    public void liveExpressionOnlyRecomputesSubtreesUsingUpdatedVariables() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var calls = new ArrayList<String>();
+        var addFunction = new VFunctionDefinition("add", new VFunctionSignature(Map.of("a", intType, "b", intType), intType), (ctx, sig, a) -> {
+            var result = (Integer) a.get("a").value() + (Integer) a.get("b").value();
+            calls.add("add " + result);
+            return VValue.value(sig.outputType(), result, ctx.env());
+        }).asPure();
+        var evaluationSpec = new EvaluationContext.Spec(Map.of("x", intType, "y", intType, "z", intType));
+        var env = new VEnvironmentImpl();
+        env.registerType("int", intType);
+        var program = VExpression.functionApplication(addFunction, Map.of(
+                "a", VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("x"), "b", VExpression.variable("y"))),
+                "b", VExpression.functionApplication(addFunction, Map.of("a", VExpression.variable("z"), "b", VExpression.value(intType, 1)))));
+        var resolved = program.resolveTypes(env, evaluationSpec).result();
+        Assertions.assertTrue(resolved.isPresent());
+        var ctx = EvaluationContext.builder(evaluationSpec)
+                .addVariable("x", VValue.value(intType, 1, env))
+                .addVariable("y", VValue.value(intType, 2, env))
+                .addVariable("z", VValue.value(intType, 3, env))
+                .build(env);
+        var live = new LiveExpression(resolved.get(), ctx);
+        Assertions.assertEquals(7, live.value().value());
+        Assertions.assertEquals(3, calls.size());
+
+        calls.clear();
+        Assertions.assertEquals(7, live.value().value());
+        Assertions.assertEquals(List.of(), calls);
+
+        live.update("x", VValue.value(intType, 10, env));
+        Assertions.assertEquals(16, live.value().value());
+        Assertions.assertEquals(List.of("add 12", "add 16"), calls);
+        Assertions.assertEquals(resolved.get().evaluate(live.context()), live.value());
+    }
 }
@@ -0,0 +1,29 @@
+package com.williambl.vampilang.lang.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// makes each caller wait for all the others, so a test only finishes in time if the calls are running at once
+final class Rendezvous {
+    private final CountDownLatch arrivals;
+
+    Rendezvous(int parties) {
+        this.arrivals = new CountDownLatch(parties);
+    }
+
+    void arrive() {
+        this.arrivals.countDown();
+        try {
+            if (!this.arrivals.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Calls ran one after another");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean allArrived() {
+        return this.arrivals.getCount() == 0;
+    }
+}
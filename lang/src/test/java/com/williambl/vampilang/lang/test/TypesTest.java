@@ -1,11 +1,16 @@
 package com.williambl.vampilang.lang.test;
 
 import com.google.common.reflect.TypeToken;
+import com.mojang.serialization.Codec;
 import com.williambl.vampilang.lang.VEnvironmentImpl;
+import com.williambl.vampilang.lang.VValue;
 import com.williambl.vampilang.lang.type.VType;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class TypesTest {
     @Test
     public void typeContainsItself() {
@@ -49,4 +54,177 @@ public class TypesTest {
         Assertions.assertTrue(type.accepts(5.0, new VEnvironmentImpl()));
         Assertions.assertFalse(type.accepts("hi", new VEnvironmentImpl()));
     }
+
+    @Test
+    public void environmentInternsStructurallyEqualParameterisedTypes() {
+        var env = new VEnvironmentImpl();
+        var numberType = VType.create();
+        var listBareType = VType.create();
+        var template = VType.createTopTemplate();
+        var listType = VType.createParameterised(listBareType, template);
+        var first = listType.with(0, listType.with(0, numberType));
+        var second = listType.with(0, listType.with(0, numberType));
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(first.hashCode(), second.hashCode());
+        var interned = env.intern(first);
+        Assertions.assertSame(interned, env.intern(second));
+        Assertions.assertSame(interned.parameters.get(0), env.intern(listType.with(0, numberType)));
+        env.intern(listType);
+        var withTemplate = VType.createParameterised(listBareType, template);
+        Assertions.assertSame(withTemplate, env.intern(withTemplate));
+        Assertions.assertNotEquals(interned, env.intern(listType.with(0, listType.with(0, listBareType))));
+        var otherEnv = new VEnvironmentImpl();
+        Assertions.assertEquals(interned, otherEnv.intern(listType.with(0, listType.with(0, numberType))));
+    }
+
+    @Test
+    public void environmentCachesContainmentUntilATypeIsRegistered() {
+        var env = new VEnvironmentImpl();
+        var type = VType.create();
+        var otherType = VType.create();
+        var template = VType.createDynamicTemplate(t -> t == type);
+        var wideTemplate = VType.createDynamicTemplate(t -> t == type || t == otherType);
+        env.registerType("type", type);
+        Assertions.assertTrue(env.contains(template, wideTemplate));
+        Assertions.assertTrue(env.contains(template, wideTemplate));
+        Assertions.assertEquals(new VEnvironmentImpl.ContainsCacheStatistics(1, 1), env.containsCacheStatistics());
+        long version = env.version();
+        env.registerType("other", otherType);
+        Assertions.assertNotEquals(version, env.version());
+        Assertions.assertFalse(env.contains(template, wideTemplate));
+        Assertions.assertEquals(2, env.containsCacheStatistics().misses());
+    }
+
+    @Test
+    public void typeLatticeJoinsToMostSpecificRegisteredSupertype() {
+        var env = new VEnvironmentImpl();
+        var numberType = VType.create();
+        var stringType = VType.create();
+        var booleanType = VType.create();
+        var numberOrString = VType.createTemplate(numberType, stringType);
+        var any = VType.createTopTemplate();
+        env.registerType("number", numberType);
+        env.registerType("string", stringType);
+        env.registerType("boolean", booleanType);
+        env.registerType("number_or_string", numberOrString);
+        env.registerType("any", any);
+        var lattice = env.typeLattice().precompute();
+        Assertions.assertSame(numberType, lattice.join(List.of(numberType, numberType)));
+        Assertions.assertSame(numberOrString, lattice.join(List.of(numberType, stringType, numberType)));
+        Assertions.assertSame(any, lattice.join(List.of(numberType, booleanType)));
+        Assertions.assertNull(lattice.join(List.of()));
+        Assertions.assertSame(lattice, env.typeLattice());
+        env.registerType("other", VType.create());
+        Assertions.assertNotSame(lattice, env.typeLattice());
+    }
+
+    @Test
+    public void frozenEnvironmentIsASnapshot() {
+        var env = new VEnvironmentImpl();
+        var numberType = VType.create();
+        var stringType = VType.create();
+        var listBareType = VType.create();
+        env.registerType("number", numberType);
+        env.registerType("list", listBareType);
+        var frozen = env.freeze();
+        env.registerType("string", stringType);
+        Assertions.assertSame(numberType, frozen.getType("number"));
+        Assertions.assertNull(frozen.getType("string"));
+        Assertions.assertEquals(2, frozen.allTypes().size());
+        Assertions.assertSame(frozen.listType(), frozen.listType());
+        Assertions.assertSame(frozen.typeLattice(), frozen.typeLattice());
+        Assertions.assertSame(numberType, frozen.typeLattice().join(List.of(numberType)));
+        Assertions.assertSame(frozen, frozen.freeze());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> frozen.registerType("string", stringType));
+    }
+
+    @Test
+    public void frozenEnvironmentAgreesWithItsSource() {
+        var env = new VEnvironmentImpl();
+        var numberType = VType.create(TypeToken.of(Double.class));
+        var stringType = VType.create(TypeToken.of(String.class));
+        var listBareType = VType.create();
+        var numberOrString = VType.createTemplate(numberType, stringType);
+        var any = VType.createTopTemplate();
+        var listOfNumbers = VType.createParameterised(listBareType, numberType);
+        env.registerType("number", numberType);
+        env.registerType("string", stringType);
+        env.registerType("list", listBareType);
+        env.registerType("number_or_string", numberOrString);
+        env.registerType("any", any);
+        env.registerType("list_of_numbers", listOfNumbers);
+        env.registerCodecForType(numberType, Codec.DOUBLE);
+        var builtCodecs = new AtomicInteger();
+        env.registerCodecForParameterisedType(listBareType, type -> {
+            builtCodecs.incrementAndGet();
+            return Codec.STRING;
+        });
+        var frozen = env.freeze();
+        Assertions.assertEquals(1, builtCodecs.get());
+        for (var type : env.allTypes().values()) {
+            for (var other : env.allTypes().values()) {
+                Assertions.assertEquals(env.contains(type, other), frozen.contains(type, other));
+            }
+        }
+
+        var listOfStrings = VType.createParameterised(listBareType, stringType);
+        Assertions.assertEquals(env.contains(listOfNumbers, listOfStrings), frozen.contains(listOfNumbers, listOfStrings));
+        frozen.rawCodecForType(listOfNumbers);
+        frozen.rawCodecForType(listOfStrings);
+        frozen.rawCodecForType(listOfStrings);
+        Assertions.assertEquals(2, builtCodecs.get());
+        Assertions.assertSame(Codec.DOUBLE, frozen.rawCodecForType(numberType));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> frozen.registerCodecForType(stringType, Codec.STRING));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> frozen.registerFunction(null));
+    }
+
+    @Test
+    public void frozenEnvironmentInternsAndCachesUnregisteredTypes() {
+        var env = new VEnvironmentImpl();
+        var numberType = VType.create();
+        var listBareType = VType.create();
+        var template = VType.createTopTemplate();
+        env.registerType("number", numberType);
+        env.registerType("list", listBareType);
+        var frozen = env.freeze();
+        var listType = VType.createParameterised(listBareType, template);
+        var first = listType.with(0, listType.with(0, numberType));
+        var interned = frozen.intern(first);
+        Assertions.assertSame(interned, frozen.intern(listType.with(0, listType.with(0, numberType))));
+        Assertions.assertSame(interned.parameters.get(0), frozen.intern(listType.with(0, numberType)));
+
+        Assertions.assertTrue(frozen.contains(listType, first));
+        var misses = frozen.containsCacheStatistics().misses();
+        Assertions.assertTrue(frozen.contains(listType, first));
+        Assertions.assertEquals(new VEnvironmentImpl.ContainsCacheStatistics(1, misses), frozen.containsCacheStatistics());
+        Assertions.assertTrue(frozen.contains(numberType, numberType));
+        Assertions.assertEquals(new VEnvironmentImpl.ContainsCacheStatistics(1, misses), frozen.containsCacheStatistics());
+    }
+
+    @Test
+    public void frozenEnvironmentNamesTypesLikeItsSource() {
+        var env = new VEnvironmentImpl();
+        var numberType = VType.create();
+        env.registerType("number", numberType);
+        Assertions.assertEquals("number", env.freeze().createTypeNamer().name(numberType));
+        env.registerType("also_number", numberType);
+        var frozen = env.freeze();
+        Assertions.assertThrows(IllegalStateException.class, env::createTypeNamer);
+        Assertions.assertThrows(IllegalStateException.class, frozen::createTypeNamer);
+    }
+
+    @Test
+    public void trustedValuesAreOnlyCheckedInStrictMode() {
+        var type = VType.create(TypeToken.of(Double.class));
+        var env = new VEnvironmentImpl();
+        Assertions.assertEquals(5.0, VValue.trusted(type, 5.0, env).value());
+        if (VValue.STRICT) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> VValue.trusted(type, "hi", env));
+        } else {
+            Assertions.assertEquals("hi", VValue.trusted(type, "hi", env).value());
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> VValue.value(type, "hi", env));
+    }
 }
@@ -0,0 +1,108 @@
+package com.williambl.vampilang.lang.batch;
+
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.jetbrains.annotations.Nullable;
+
+// only loaded through DoubleKernels.load, when jdk.incubator.vector is present
+final class VectorDoubleKernels extends ScalarDoubleKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void unary(VFunctionDefinition.Specialisation.DoubleUnary specialisation, double[] operand, double[] result) {
+        var operator = unaryOperator(specialisation.lanewise());
+        if (operator == null) {
+            super.unary(specialisation, operand, result);
+            return;
+        }
+
+        int i = 0;
+        for (int bound = SPECIES.loopBound(result.length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, operand, i).lanewise(operator).intoArray(result, i);
+        }
+
+        unaryTail(specialisation, operand, result, i);
+    }
+
+    @Override
+    public void binary(VFunctionDefinition.Specialisation.DoubleBinary specialisation, double[] a, double[] b, double[] result) {
+        var operator = binaryOperator(specialisation.lanewise());
+        if (operator == null) {
+            super.binary(specialisation, a, b, result);
+            return;
+        }
+
+        int i = 0;
+        for (int bound = SPECIES.loopBound(result.length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(operator, DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        }
+
+        binaryTail(specialisation, a, b, result, i);
+    }
+
+    @Override
+    public void compare(VFunctionDefinition.Specialisation.DoubleComparison specialisation, double[] a, double[] b, boolean[] result) {
+        var operator = comparison(specialisation.lanewise());
+        if (operator == null) {
+            super.compare(specialisation, a, b, result);
+            return;
+        }
+
+        int i = 0;
+        for (int bound = SPECIES.loopBound(result.length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).compare(operator, DoubleVector.fromArray(SPECIES, b, i)).intoArray(result, i);
+        }
+
+        compareTail(specialisation, a, b, result, i);
+    }
+
+    @Override
+    public boolean vectorised() {
+        return true;
+    }
+
+    private static @Nullable VectorOperators.Unary unaryOperator(@Nullable VFunctionDefinition.Specialisation.Lanewise lanewise) {
+        if (lanewise == null) {
+            return null;
+        }
+
+        return switch (lanewise) {
+            case ABSOLUTE -> VectorOperators.ABS;
+            case NEGATE -> VectorOperators.NEG;
+            case SQUARE_ROOT -> VectorOperators.SQRT;
+            default -> null;
+        };
+    }
+
+    private static @Nullable VectorOperators.Binary binaryOperator(@Nullable VFunctionDefinition.Specialisation.Lanewise lanewise) {
+        if (lanewise == null) {
+            return null;
+        }
+
+        return switch (lanewise) {
+            case ADD -> VectorOperators.ADD;
+            case SUBTRACT -> VectorOperators.SUB;
+            case MULTIPLY -> VectorOperators.MUL;
+            case DIVIDE -> VectorOperators.DIV;
+            case MIN -> VectorOperators.MIN;
+            case MAX -> VectorOperators.MAX;
+            default -> null;
+        };
+    }
+
+    private static @Nullable VectorOperators.Comparison comparison(@Nullable VFunctionDefinition.Specialisation.Lanewise lanewise) {
+        if (lanewise == null) {
+            return null;
+        }
+
+        return switch (lanewise) {
+            case LESS_THAN -> VectorOperators.LT;
+            case GREATER_THAN -> VectorOperators.GT;
+            case LESS_THAN_OR_EQUAL -> VectorOperators.LE;
+            case GREATER_THAN_OR_EQUAL -> VectorOperators.GE;
+            default -> null;
+        };
+    }
+}
@@ -4,6 +4,7 @@ import com.williambl.vampilang.lang.VEnvironment;
 import com.williambl.vampilang.lang.VValue;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
 import com.williambl.vampilang.lang.function.VFunctionSignature;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 import java.util.Map;
@@ -16,19 +17,19 @@ import java.util.stream.Collectors;
 public final class ArithmeticVFunctions {
 
     //binary operators
-    public static final VFunctionDefinition ADD = fromBinaryOperator("add", Double::sum);
-    public static final VFunctionDefinition SUBTRACT = fromBinaryOperator("subtract", (a, b) -> a - b);
-    public static final VFunctionDefinition MULTIPLY = fromBinaryOperator("multiply", (a, b) -> a * b);
-    public static final VFunctionDefinition DIVIDE = fromBinaryOperator("divide", (a, b) -> a / b);
+    public static final VFunctionDefinition ADD = fromBinaryOperator("add", Double::sum, VFunctionDefinition.Specialisation.Lanewise.ADD);
+    public static final VFunctionDefinition SUBTRACT = fromBinaryOperator("subtract", (a, b) -> a - b, VFunctionDefinition.Specialisation.Lanewise.SUBTRACT);
+    public static final VFunctionDefinition MULTIPLY = fromBinaryOperator("multiply", (a, b) -> a * b, VFunctionDefinition.Specialisation.Lanewise.MULTIPLY);
+    public static final VFunctionDefinition DIVIDE = fromBinaryOperator("divide", (a, b) -> a / b, VFunctionDefinition.Specialisation.Lanewise.DIVIDE);
     public static final VFunctionDefinition MODULO = fromBinaryOperator("modulo", (a, b) -> a % b);
     public static final VFunctionDefinition POWER = fromBinaryOperator("power", Math::pow);
-    public static final VFunctionDefinition MAX = fromBinaryOperator("max", Math::max);
-    public static final VFunctionDefinition MIN = fromBinaryOperator("min", Math::min);
+    public static final VFunctionDefinition MAX = fromBinaryOperator("max", Math::max, VFunctionDefinition.Specialisation.Lanewise.MAX);
+    public static final VFunctionDefinition MIN = fromBinaryOperator("min", Math::min, VFunctionDefinition.Specialisation.Lanewise.MIN);
 
     // unary operators
-    public static final VFunctionDefinition ABSOLUTE = fromUnaryOperator("absolute", Math::abs);
-    public static final VFunctionDefinition NEGATE = fromUnaryOperator("negate", a -> -a);
-    public static final VFunctionDefinition SQUARE_ROOT = fromUnaryOperator("square_root", Math::sqrt);
+    public static final VFunctionDefinition ABSOLUTE = fromUnaryOperator("absolute", Math::abs, VFunctionDefinition.Specialisation.Lanewise.ABSOLUTE);
+    public static final VFunctionDefinition NEGATE = fromUnaryOperator("negate", a -> -a, VFunctionDefinition.Specialisation.Lanewise.NEGATE);
+    public static final VFunctionDefinition SQUARE_ROOT = fromUnaryOperator("square_root", Math::sqrt, VFunctionDefinition.Specialisation.Lanewise.SQUARE_ROOT);
 
     // trigonometry
     public static final VFunctionDefinition SINE = fromUnaryOperator("sine", Math::sin);
@@ -49,21 +50,33 @@ public final class ArithmeticVFunctions {
                     result += coefficients.get(i) * Math.pow(input, i);
                 }
 
-                return VValue.value(sig.outputType(), result, ctx.env());
-            });
+                return VValue.trusted(sig.outputType(), result, ctx.env());
+            }).withStrictInputs("coefficients", "input").asPure();
 
     public static VFunctionDefinition fromBinaryOperator(String name, DoubleBinaryOperator operator) {
+        return fromBinaryOperator(name, operator, null);
+    }
+
+    public static VFunctionDefinition fromUnaryOperator(String name, DoubleUnaryOperator operator) {
+        return fromUnaryOperator(name, operator, null);
+    }
+
+    private static VFunctionDefinition fromBinaryOperator(String name, DoubleBinaryOperator operator, @Nullable VFunctionDefinition.Specialisation.Lanewise lanewise) {
         return new VFunctionDefinition(
                 name,
                 new VFunctionSignature(Map.of("a", StandardVTypes.NUMBER, "b", StandardVTypes.NUMBER), StandardVTypes.NUMBER),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), operator.applyAsDouble(args.get("a").get(StandardVTypes.NUMBER), args.get("b").get(StandardVTypes.NUMBER)), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), operator.applyAsDouble(args.get("a").get(StandardVTypes.NUMBER), args.get("b").get(StandardVTypes.NUMBER)), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleBinary("a", "b", operator, lanewise))
+                .asPure();
     }
 
-    public static VFunctionDefinition fromUnaryOperator(String name, DoubleUnaryOperator operator) {
+    private static VFunctionDefinition fromUnaryOperator(String name, DoubleUnaryOperator operator, @Nullable VFunctionDefinition.Specialisation.Lanewise lanewise) {
         return new VFunctionDefinition(
                 name,
                 new VFunctionSignature(Map.of("operand", StandardVTypes.NUMBER), StandardVTypes.NUMBER),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), operator.applyAsDouble((Double) args.get("operand").value()), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), operator.applyAsDouble((Double) args.get("operand").value()), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleUnary("operand", operator, lanewise))
+                .asPure();
     }
 
     public static void register(VEnvironment env) {
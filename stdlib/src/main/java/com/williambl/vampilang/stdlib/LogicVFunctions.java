@@ -11,15 +11,19 @@ import java.util.function.*;
 import java.util.stream.Stream;
 
 public final class LogicVFunctions {
-    public static final VFunctionDefinition AND = fromMultiOperator("and", bools -> bools.allMatch(Boolean::booleanValue));
-    public static final VFunctionDefinition OR = fromMultiOperator("or", bools -> bools.anyMatch(Boolean::booleanValue));
+    public static final VFunctionDefinition AND = fromMultiOperator("and", bools -> bools.allMatch(Boolean::booleanValue))
+            .withSpecialisation(new VFunctionDefinition.Specialisation.ShortCircuit("operands", false));
+    public static final VFunctionDefinition OR = fromMultiOperator("or", bools -> bools.anyMatch(Boolean::booleanValue))
+            .withSpecialisation(new VFunctionDefinition.Specialisation.ShortCircuit("operands", true));
     public static final VFunctionDefinition NOT = fromUnaryOperator("not", bool -> !bool);
 
     public static VFunctionDefinition fromBinaryOperator(String name, BinaryOperator<Boolean> operator) {
         return new VFunctionDefinition(
                 name,
                 new VFunctionSignature(Map.of("a", StandardVTypes.BOOLEAN, "b", StandardVTypes.BOOLEAN), StandardVTypes.BOOLEAN),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), operator.apply(args.get("a").get(StandardVTypes.BOOLEAN), args.get("b").get(StandardVTypes.BOOLEAN)), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), operator.apply(args.get("a").get(StandardVTypes.BOOLEAN), args.get("b").get(StandardVTypes.BOOLEAN)), ctx.env()))
+                .withIntrinsic(VFunctionDefinition.Intrinsic.of(List.of("a", "b"), BinaryOperator.class, operator))
+                .asPure();
     }
 
     @SuppressWarnings("unchecked")
@@ -27,14 +31,19 @@ public final class LogicVFunctions {
         return new VFunctionDefinition(
                 name,
                 new VFunctionSignature(Map.of("operands", StandardVTypes.LIST.with(0, StandardVTypes.BOOLEAN)), StandardVTypes.BOOLEAN),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), operator.apply(((List<VValue>) args.get("operands").value()).stream().map(v -> v.get(StandardVTypes.BOOLEAN))), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), operator.apply(((List<VValue>) args.get("operands").value()).stream().map(v -> v.get(StandardVTypes.BOOLEAN))), ctx.env()))
+                .withStrictInputs("operands")
+                .asPure();
     }
 
     public static VFunctionDefinition fromUnaryOperator(String name, UnaryOperator<Boolean> operator) {
         return new VFunctionDefinition(
                 name,
                 new VFunctionSignature(Map.of("operand", StandardVTypes.BOOLEAN), StandardVTypes.BOOLEAN),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), operator.apply(args.get("operand").get(StandardVTypes.BOOLEAN)), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), operator.apply(args.get("operand").get(StandardVTypes.BOOLEAN)), ctx.env()))
+                .withIntrinsic(VFunctionDefinition.Intrinsic.of(List.of("operand"), UnaryOperator.class, operator))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.BooleanUnary("operand", operator::apply))
+                .asPure();
     }
 
     public static void register(VEnvironment env) {
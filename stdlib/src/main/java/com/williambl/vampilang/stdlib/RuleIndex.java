@@ -0,0 +1,337 @@
+package com.williambl.vampilang.stdlib;
+
+import com.williambl.vampilang.lang.EvaluationContext;
+import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.compile.RuleSet;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+// indexes the simple conditions of many boolean rules, like the alpha network of a rete matcher. each rule is split into
+// the operands of its top-level ands. operands comparing a variable with a constant using == or a number comparison are
+// indexed, by the constant's value for == and in sorted arrays of bounds for comparisons. a context only counts the
+// conditions it satisfies, so only the rules it touches are looked at, and only evaluates rules which also have other
+// operands once all their indexed ones hold. rules without any indexed operands are always evaluated. a variable missing
+// from the context may only be read behind an operand that short-circuits, so rules indexing it are evaluated in full
+// instead
+public final class RuleIndex<K> {
+    private final List<K> keys;
+    private final List<VExpression> rules;
+    private final int[] indexedCounts;
+    private final boolean[] fullyIndexed;
+    private final int[] unindexed;
+    private final ThreadLocal<Counts> counts;
+    private final Map<String, VExpression.VariableRef> variables = new HashMap<>();
+    private final Map<String, int[]> rulesByVariable = new HashMap<>();
+    private final Map<String, Map<Object, int[]>> equalities = new HashMap<>();
+    private final Map<String, Bounds[]> bounds = new HashMap<>();
+    private final RuleSet<K> residual;
+
+    public RuleIndex(Map<K, VExpression> rules) {
+        this.keys = List.copyOf(rules.keySet());
+        this.rules = this.keys.stream().map(rules::get).toList();
+        this.indexedCounts = new int[this.keys.size()];
+        this.fullyIndexed = new boolean[this.keys.size()];
+        var equalities = new HashMap<String, Map<Object, List<Integer>>>();
+        var bounds = new HashMap<String, List<List<Bound>>>();
+        var rulesByVariable = new HashMap<String, List<Integer>>();
+        var residual = new LinkedHashMap<K, VExpression>();
+        for (int rule = 0; rule < this.keys.size(); rule++) {
+            var expr = this.rules.get(rule);
+            var operands = new ArrayList<VExpression>();
+            conjuncts(expr, operands);
+            boolean hasResidual = false;
+            for (var operand : operands) {
+                var variable = this.index(operand, rule, equalities, bounds);
+                if (variable == null) {
+                    hasResidual = true;
+                } else {
+                    rulesByVariable.computeIfAbsent(variable, $ -> new ArrayList<>()).add(rule);
+                }
+            }
+
+            this.fullyIndexed[rule] = !hasResidual;
+            if (hasResidual) {
+                residual.put(this.keys.get(rule), expr);
+            }
+        }
+
+        rulesByVariable.forEach((name, ruleIndices) -> this.rulesByVariable.put(name, ruleIndices.stream().mapToInt(Integer::intValue).toArray()));
+        equalities.forEach((name, byValue) -> {
+            var index = new HashMap<Object, int[]>();
+            byValue.forEach((value, ruleIndices) -> index.put(value, ruleIndices.stream().mapToInt(Integer::intValue).toArray()));
+            this.equalities.put(name, index);
+        });
+        bounds.forEach((name, kinds) -> this.bounds.put(name, kinds.stream().map(Bounds::of).toArray(Bounds[]::new)));
+        this.unindexed = IntStream.range(0, this.keys.size()).filter(rule -> this.indexedCounts[rule] == 0).toArray();
+        this.counts = ThreadLocal.withInitial(() -> new Counts(this.keys.size()));
+        this.residual = new RuleSet<>(residual);
+    }
+
+    private static void conjuncts(VExpression expr, List<VExpression> operands) {
+        if (expr instanceof VExpression.FunctionApplication app && app.function().equals(LogicVFunctions.AND) && app.inputs().get("operands") instanceof VExpression.ListConstruction list) {
+            for (var entry : list.entries()) {
+                conjuncts(entry, operands);
+            }
+        } else {
+            operands.add(expr);
+        }
+    }
+
+    // the name of the variable the operand was indexed by, or null if it could not be indexed
+    private @Nullable String index(VExpression operand, int rule, Map<String, Map<Object, List<Integer>>> equalities, Map<String, List<List<Bound>>> bounds) {
+        if (!(operand instanceof VExpression.FunctionApplication app) || app.resolvedSignature() == null) {
+            return null;
+        }
+
+        var a = app.inputs().get("a");
+        var b = app.inputs().get("b");
+        boolean flipped = b instanceof VExpression.VariableRef && a instanceof VExpression.Value;
+        if (!flipped && !(a instanceof VExpression.VariableRef && b instanceof VExpression.Value)) {
+            return null;
+        }
+
+        var variable = (VExpression.VariableRef) (flipped ? b : a);
+        var constant = ((VExpression.Value) (flipped ? a : b)).value().value();
+        var function = app.function();
+        if (function.equals(StandardVFunctions.EQUALS)) {
+            equalities.computeIfAbsent(variable.name(), $ -> new HashMap<>()).computeIfAbsent(constant, $ -> new ArrayList<>()).add(rule);
+        } else {
+            BoundKind kind;
+            if (function.equals(StandardVFunctions.GREATER_THAN)) {
+                kind = flipped ? BoundKind.BELOW : BoundKind.ABOVE;
+            } else if (function.equals(StandardVFunctions.GREATER_THAN_OR_EQUAL)) {
+                kind = flipped ? BoundKind.AT_MOST : BoundKind.AT_LEAST;
+            } else if (function.equals(StandardVFunctions.LESS_THAN)) {
+                kind = flipped ? BoundKind.ABOVE : BoundKind.BELOW;
+            } else if (function.equals(StandardVFunctions.LESS_THAN_OR_EQUAL)) {
+                kind = flipped ? BoundKind.AT_LEAST : BoundKind.AT_MOST;
+            } else {
+                return null;
+            }
+
+            if (!(constant instanceof Number number) || Double.isNaN(number.doubleValue())) {
+                return null;
+            }
+
+            var kinds = bounds.computeIfAbsent(variable.name(), $ -> {
+                var lists = new ArrayList<List<Bound>>();
+                for (int i = 0; i < BoundKind.values().length; i++) {
+                    lists.add(new ArrayList<>());
+                }
+
+                return lists;
+            });
+            kinds.get(kind.ordinal()).add(new Bound(number.doubleValue(), rule));
+        }
+
+        this.variables.putIfAbsent(variable.name(), variable);
+        this.indexedCounts[rule]++;
+        return variable.name();
+    }
+
+    // the keys of the rules that evaluated to true, in the order the rules were given
+    public Set<K> evaluate(EvaluationContext ctx) {
+        var counts = this.counts.get();
+        if (counts.inUse) {
+            counts = new Counts(this.keys.size());
+        }
+
+        counts.inUse = true;
+        try {
+            return this.evaluate(ctx, counts);
+        } finally {
+            counts.clear();
+            counts.inUse = false;
+        }
+    }
+
+    private Set<K> evaluate(EvaluationContext ctx, Counts counts) {
+        for (var variable : this.variables.entrySet()) {
+            Object value;
+            try {
+                value = variable.getValue().evaluate(ctx).value();
+            } catch (NoSuchElementException e) {
+                for (int rule : this.rulesByVariable.get(variable.getKey())) {
+                    counts.undecide(rule);
+                }
+
+                continue;
+            }
+
+            var byValue = this.equalities.get(variable.getKey());
+            if (byValue != null) {
+                var rules = byValue.get(value);
+                if (rules != null) {
+                    for (int rule : rules) {
+                        counts.satisfy(rule);
+                    }
+                }
+            }
+
+            var kinds = this.bounds.get(variable.getKey());
+            if (kinds != null && value instanceof Number number && !Double.isNaN(number.doubleValue())) {
+                for (var kind : BoundKind.values()) {
+                    kinds[kind.ordinal()].satisfiedBy(kind, number.doubleValue(), counts);
+                }
+            }
+        }
+
+        // the touched rules and the unindexed ones, merged in the order the rules were given
+        Arrays.sort(counts.touched, 0, counts.size);
+        var candidates = new int[counts.size + this.unindexed.length];
+        int candidateCount = 0;
+        for (int t = 0, u = 0; t < counts.size || u < this.unindexed.length; ) {
+            int rule;
+            if (u == this.unindexed.length || (t < counts.size && counts.touched[t] < this.unindexed[u])) {
+                rule = counts.touched[t++];
+            } else {
+                rule = this.unindexed[u++];
+            }
+
+            if (counts.undecided[rule] || counts.satisfied[rule] == this.indexedCounts[rule]) {
+                candidates[candidateCount++] = rule;
+            }
+        }
+
+        var toEvaluate = new ArrayList<K>();
+        for (int i = 0; i < candidateCount; i++) {
+            int rule = candidates[i];
+            if (!counts.undecided[rule] && !this.fullyIndexed[rule]) {
+                toEvaluate.add(this.keys.get(rule));
+            }
+        }
+
+        var evaluated = this.residual.evaluate(ctx, toEvaluate);
+        var matched = new LinkedHashSet<K>();
+        for (int i = 0; i < candidateCount; i++) {
+            int rule = candidates[i];
+            boolean matches;
+            if (counts.undecided[rule]) {
+                matches = (Boolean) this.rules.get(rule).evaluate(ctx).value();
+            } else if (this.fullyIndexed[rule]) {
+                matches = true;
+            } else {
+                matches = evaluated.contains(this.keys.get(rule));
+            }
+
+            if (matches) {
+                matched.add(this.keys.get(rule));
+            }
+        }
+
+        return matched;
+    }
+
+    // per-call counts of satisfied conditions, kept for only the rules a context touches. a thread reuses its counts
+    // between calls, and clears just the touched rules afterwards, so a call costs as much as the rules it touches
+    private static final class Counts {
+        private final int[] satisfied;
+        private final boolean[] undecided;
+        private int[] touched = new int[16];
+        private int size;
+        private boolean inUse;
+
+        private Counts(int rules) {
+            this.satisfied = new int[rules];
+            this.undecided = new boolean[rules];
+        }
+
+        private void satisfy(int rule) {
+            if (this.satisfied[rule]++ == 0 && !this.undecided[rule]) {
+                this.touch(rule);
+            }
+        }
+
+        private void undecide(int rule) {
+            if (!this.undecided[rule]) {
+                this.undecided[rule] = true;
+                if (this.satisfied[rule] == 0) {
+                    this.touch(rule);
+                }
+            }
+        }
+
+        private void touch(int rule) {
+            if (this.size == this.touched.length) {
+                this.touched = Arrays.copyOf(this.touched, this.size * 2);
+            }
+
+            this.touched[this.size++] = rule;
+        }
+
+        private void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.satisfied[this.touched[i]] = 0;
+                this.undecided[this.touched[i]] = false;
+            }
+
+            this.size = 0;
+        }
+    }
+
+    // the variable is ABOVE, AT_LEAST, BELOW or AT_MOST the bound
+    private enum BoundKind {
+        ABOVE,
+        AT_LEAST,
+        BELOW,
+        AT_MOST
+    }
+
+    private record Bound(double value, int rule) {
+    }
+
+    // bounds of one kind for one variable, sorted by value
+    private record Bounds(double[] values, int[] rules) {
+        private static Bounds of(List<Bound> bounds) {
+            var sorted = bounds.stream().sorted(Comparator.comparingDouble(Bound::value)).toList();
+            return new Bounds(sorted.stream().mapToDouble(Bound::value).toArray(), sorted.stream().mapToInt(Bound::rule).toArray());
+        }
+
+        private void satisfiedBy(BoundKind kind, double value, Counts counts) {
+            int from = switch (kind) {
+                case ABOVE, AT_LEAST -> 0;
+                case BELOW -> this.firstAbove(value);
+                case AT_MOST -> this.firstAtLeast(value);
+            };
+            int to = switch (kind) {
+                case ABOVE -> this.firstAtLeast(value);
+                case AT_LEAST -> this.firstAbove(value);
+                case BELOW, AT_MOST -> this.values.length;
+            };
+
+            for (int i = from; i < to; i++) {
+                counts.satisfy(this.rules[i]);
+            }
+        }
+
+        private int firstAtLeast(double value) {
+            int low = 0, high = this.values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.values[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+
+        private int firstAbove(double value) {
+            int low = 0, high = this.values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.values[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+    }
+}
@@ -18,7 +18,9 @@ public class StandardVFunctions {
             new VFunctionSignature(
                     Map.of("predicate", StandardVTypes.BOOLEAN, "a", StandardVTypes.TEMPLATE_ANY, "b", StandardVTypes.TEMPLATE_ANY),
                     StandardVTypes.TEMPLATE_ANY),
-            (ctx, sig, args) -> (Boolean) args.get("predicate").value() ? args.get("a") : args.get("b"));
+            (ctx, sig, args) -> (Boolean) args.get("predicate").value() ? args.get("a") : args.get("b"))
+            .withSpecialisation(new VFunctionDefinition.Specialisation.Conditional("predicate", "a", "b"))
+            .asPure();
 
     private static final VType MATCH_ON_TYPE = StandardVTypes.TEMPLATE_ANY.uniquise(new HashMap<>());
     private static final VType MATCH_RESULT_TYPE = StandardVTypes.TEMPLATE_ANY.uniquise(new HashMap<>());
@@ -30,15 +32,15 @@ public class StandardVFunctions {
                 Object input = args.get("input").value();
                 List<Map.Entry<Object, Object>> cases = args.get("cases").getUnchecked();
                 Object defaultVal = args.get("default").value();
-                return VValue.value(sig.outputType(), cases.stream().filter(kase -> Objects.equals(kase.getKey(), input)).map(Map.Entry::getValue).findFirst().orElse(defaultVal), ctx.env());
-            });
+                return VValue.trusted(sig.outputType(), cases.stream().filter(kase -> Objects.equals(kase.getKey(), input)).map(Map.Entry::getValue).findFirst().orElse(defaultVal), ctx.env());
+            }).withStrictInputs("input", "cases", "default").asPure();
 
     public static final VFunctionDefinition EQUALS = createComparison("==", Objects::equals);
     public static final VFunctionDefinition NOT_EQUALS = createComparison("!=", (a, b) -> !(Objects.equals(a, b)));
-    public static final VFunctionDefinition LESS_THAN = createNumberComparison("<", (a, b) -> a < b);
-    public static final VFunctionDefinition GREATER_THAN = createNumberComparison(">", (a, b) -> a > b);
-    public static final VFunctionDefinition LESS_THAN_OR_EQUAL = createNumberComparison("<=", (a, b) -> a <= b);
-    public static final VFunctionDefinition GREATER_THAN_OR_EQUAL = createNumberComparison(">=", (a, b) -> a >= b);
+    public static final VFunctionDefinition LESS_THAN = createNumberComparison("<", (a, b) -> a < b, VFunctionDefinition.Specialisation.Lanewise.LESS_THAN);
+    public static final VFunctionDefinition GREATER_THAN = createNumberComparison(">", (a, b) -> a > b, VFunctionDefinition.Specialisation.Lanewise.GREATER_THAN);
+    public static final VFunctionDefinition LESS_THAN_OR_EQUAL = createNumberComparison("<=", (a, b) -> a <= b, VFunctionDefinition.Specialisation.Lanewise.LESS_THAN_OR_EQUAL);
+    public static final VFunctionDefinition GREATER_THAN_OR_EQUAL = createNumberComparison(">=", (a, b) -> a >= b, VFunctionDefinition.Specialisation.Lanewise.GREATER_THAN_OR_EQUAL);
 
     public static final VFunctionDefinition MAP_OPTIONAL = create(() -> {
         var type = StandardVTypes.TEMPLATE_ANY.uniquise(new HashMap<>());
@@ -52,9 +54,9 @@ public class StandardVFunctions {
                     var optContainingType = ((VParameterisedType) sig.inputTypes().get("optional")).parameters.get(0);
                     Optional<Object> opt = args.get("optional").getUnchecked();
                     VExpression mapping = args.get("mapping").getUnchecked();
-                    Optional<Object> res = opt.map(o -> mapping.evaluate(ctx.with("unwrapped_optional", VValue.value(optContainingType, o, ctx.env()))).value());
-                    return VValue.value(sig.outputType(), res, ctx.env());
-                });
+                    Optional<Object> res = opt.map(o -> mapping.evaluate(ctx.with("unwrapped_optional", VValue.trusted(optContainingType, o, ctx.env()))).value());
+                    return VValue.trusted(sig.outputType(), res, ctx.env());
+                }).withStrictInputs("optional", "mapping").asPure();
     });
 
     public static final VFunctionDefinition UNWRAP_OPTIONAL = create(() -> {
@@ -66,19 +68,21 @@ public class StandardVFunctions {
                 ), type),
                 (ctx, sig, args) -> {
                     Optional<Object> opt = args.get("optional").getUnchecked();
-                    return opt.map(o -> VValue.value(sig.outputType(), o, ctx.env())).orElseGet(() -> args.get("fallback"));
-                });
+                    return opt.map(o -> VValue.trusted(sig.outputType(), o, ctx.env())).orElseGet(() -> args.get("fallback"));
+                }).withStrictInputs("optional").withLazyInputs("fallback").asPure();
     });
 
     //TODO flatmap + filter
 
 
-    private static VFunctionDefinition createNumberComparison(String name, BiPredicate<Double, Double> predicate) {
+    private static VFunctionDefinition createNumberComparison(String name, VFunctionDefinition.Specialisation.DoubleBiPredicate predicate, VFunctionDefinition.Specialisation.Lanewise lanewise) {
         return new VFunctionDefinition(name,
                 new VFunctionSignature(
                         Map.of("a", StandardVTypes.NUMBER, "b", StandardVTypes.NUMBER),
                         StandardVTypes.BOOLEAN),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), predicate.test(args.get("a").getUnchecked(), args.get("b").getUnchecked()), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), predicate.test(args.get("a").<Double>getUnchecked(), args.get("b").<Double>getUnchecked()), ctx.env()))
+                .withSpecialisation(new VFunctionDefinition.Specialisation.DoubleComparison("a", "b", predicate, lanewise))
+                .asPure();
     }
 
     private static VFunctionDefinition createComparison(String name, BiPredicate<Object, Object> predicate) {
@@ -86,7 +90,9 @@ public class StandardVFunctions {
                 new VFunctionSignature(
                         Map.of("a", StandardVTypes.TEMPLATE_ANY.uniquise(new HashMap<>()), "b", StandardVTypes.TEMPLATE_ANY),
                         StandardVTypes.BOOLEAN),
-                (ctx, sig, args) -> VValue.value(sig.outputType(), predicate.test(args.get("a").getUnchecked(), args.get("b").getUnchecked()), ctx.env()));
+                (ctx, sig, args) -> VValue.trusted(sig.outputType(), predicate.test(args.get("a").getUnchecked(), args.get("b").getUnchecked()), ctx.env()))
+                .withIntrinsic(VFunctionDefinition.Intrinsic.of(List.of("a", "b"), BiPredicate.class, predicate))
+                .asPure();
     }
 
     private static VFunctionDefinition create(Supplier<VFunctionDefinition> sup) {
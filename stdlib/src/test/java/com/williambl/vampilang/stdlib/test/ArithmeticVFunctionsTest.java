@@ -5,12 +5,17 @@ import com.williambl.vampilang.lang.EvaluationContext;
 import com.williambl.vampilang.lang.VEnvironment;
 import com.williambl.vampilang.lang.VEnvironmentImpl;
 import com.williambl.vampilang.lang.VExpression;
+import com.williambl.vampilang.lang.batch.BatchContext;
+import com.williambl.vampilang.lang.batch.BatchEvaluator;
+import com.williambl.vampilang.lang.compile.HiddenClassCompiler;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.optimise.ConstantFolding;
 import com.williambl.vampilang.stdlib.ArithmeticVFunctions;
 import com.williambl.vampilang.stdlib.StandardVTypes;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -106,6 +111,72 @@ public class ArithmeticVFunctionsTest {
         }
     }
 
+    @Test
+    public void batchTest() {
+        var spec = new EvaluationContext.Spec(Map.of("a", StandardVTypes.NUMBER, "b", StandardVTypes.NUMBER));
+        var product = List.copyOf(Sets.cartesianProduct(INPUTS, INPUTS));
+        var a = product.stream().mapToDouble(p -> p.get(0)).toArray();
+        var b = product.stream().mapToDouble(p -> p.get(1)).toArray();
+        var batch = BatchContext.builder(spec, product.size())
+                .addDoubles("a", StandardVTypes.NUMBER, a)
+                .addDoubles("b", StandardVTypes.NUMBER, b)
+                .build(ENV);
+        for (var function : List.of(ArithmeticVFunctions.ADD, ArithmeticVFunctions.SUBTRACT, ArithmeticVFunctions.MULTIPLY, ArithmeticVFunctions.DIVIDE, ArithmeticVFunctions.MODULO, ArithmeticVFunctions.MAX, ArithmeticVFunctions.MIN, ArithmeticVFunctions.ABSOLUTE, ArithmeticVFunctions.NEGATE, ArithmeticVFunctions.SQUARE_ROOT)) {
+            var inputs = function.signature().inputTypes().size() == 2
+                    ? Map.of("a", VExpression.variable("a"), "b", VExpression.variable("b"))
+                    : Map.of("operand", VExpression.variable("a"));
+            var expr = VExpression.functionApplication(function, inputs).resolveTypes(ENV, spec).result();
+            Assertions.assertTrue(expr.isPresent());
+            var result = BatchEvaluator.evaluateBatch(expr.get(), batch);
+            for (int i = 0; i < product.size(); i++) {
+                Assertions.assertEquals(expr.get().evaluate(batch.row(i)), result.get(i, ENV));
+            }
+        }
+    }
+
+    @Test
+    public void hiddenClassCompilationTest() {
+        for (var expr : applications()) {
+            Assertions.assertEquals(expr.evaluate(new EvaluationContext(ENV)), HiddenClassCompiler.compile(expr).evaluate(new EvaluationContext(ENV)));
+        }
+    }
+
+    @Test
+    public void compilationTest() {
+        for (var expr : applications()) {
+            Assertions.assertEquals(expr.evaluate(new EvaluationContext(ENV)), expr.compile().evaluate(new EvaluationContext(ENV)));
+        }
+    }
+
+    @Test
+    public void constantFoldingTest() {
+        for (var expr : applications()) {
+            Assertions.assertEquals(new VExpression.Value(expr.evaluate(new EvaluationContext(ENV))), ConstantFolding.fold(expr, ENV));
+        }
+
+        var coefficientsExpr = VExpression.list(List.of(VExpression.value(StandardVTypes.NUMBER, -5.), VExpression.value(StandardVTypes.NUMBER, 5.), VExpression.value(StandardVTypes.NUMBER, 2.)));
+        var polynomial = VExpression.functionApplication(ArithmeticVFunctions.POLYNOMIAL, Map.of("coefficients", coefficientsExpr, "input", VExpression.value(StandardVTypes.NUMBER, 3.))).resolveTypes(ENV, new EvaluationContext.Spec()).result();
+        Assertions.assertTrue(polynomial.isPresent());
+        Assertions.assertEquals(new VExpression.Value(polynomial.get().evaluate(new EvaluationContext(ENV))), ConstantFolding.fold(polynomial.get(), ENV));
+    }
+
+    private static List<VExpression> applications() {
+        var applications = new ArrayList<VExpression>();
+        for (var function : List.of(ArithmeticVFunctions.ADD, ArithmeticVFunctions.SUBTRACT, ArithmeticVFunctions.MULTIPLY, ArithmeticVFunctions.DIVIDE, ArithmeticVFunctions.MODULO, ArithmeticVFunctions.POWER, ArithmeticVFunctions.MAX, ArithmeticVFunctions.MIN)) {
+            for (var inputs : Sets.cartesianProduct(INPUTS, INPUTS)) {
+                applications.add(VExpression.functionApplication(function, Map.of("a", VExpression.value(StandardVTypes.NUMBER, inputs.get(0)), "b", VExpression.value(StandardVTypes.NUMBER, inputs.get(1)))).resolveTypes(ENV, new EvaluationContext.Spec()).result().orElseThrow());
+            }
+        }
+
+        for (var function : List.of(ArithmeticVFunctions.ABSOLUTE, ArithmeticVFunctions.NEGATE, ArithmeticVFunctions.SQUARE_ROOT, ArithmeticVFunctions.SINE, ArithmeticVFunctions.COSINE, ArithmeticVFunctions.TANGENT)) {
+            for (var input : INPUTS) {
+                applications.add(VExpression.functionApplication(function, Map.of("operand", VExpression.value(StandardVTypes.NUMBER, input))).resolveTypes(ENV, new EvaluationContext.Spec()).result().orElseThrow());
+            }
+        }
+
+        return applications;
+    }
+
     private static final Set<Double> INPUTS = Set.of(-10., -200., 10., 5., 100., 200., 4.5, Double.NEGATIVE_INFINITY, (double) Float.MIN_VALUE);
     private static final VEnvironment ENV = new VEnvironmentImpl();
     static {
@@ -2,13 +2,17 @@ package com.williambl.vampilang.stdlib.test;
 
 import com.google.common.collect.Sets;
 import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.compile.HiddenClassCompiler;
+import com.williambl.vampilang.lang.evaluation.IterativeEvaluator;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
 import com.williambl.vampilang.stdlib.ArithmeticVFunctions;
 import com.williambl.vampilang.stdlib.LogicVFunctions;
 import com.williambl.vampilang.stdlib.StandardVTypes;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +35,72 @@ public class LogicVFunctionsTest {
         fromUnaryOperator(LogicVFunctions.NOT, UnaryOperatorTestCase.create(b -> !b));
     }
 
+    @Test
+    public void andAndOrShortCircuit() {
+        var unreachable = new VFunctionDefinition("unreachable", new VFunctionSignature(Map.of(), StandardVTypes.BOOLEAN), (ctx, sig, a) -> {
+            throw new AssertionError("operands after the decisive one should not be evaluated");
+        });
+        for (var testCase : List.of(Map.entry(LogicVFunctions.AND, false), Map.entry(LogicVFunctions.OR, true))) {
+            var expr = VExpression.functionApplication(testCase.getKey(), Map.of("operands", VExpression.list(List.of(
+                    VExpression.value(StandardVTypes.BOOLEAN, testCase.getValue()),
+                    VExpression.functionApplication(unreachable, Map.of()))))).resolveTypes(ENV, new EvaluationContext.Spec()).result();
+            Assertions.assertTrue(expr.isPresent());
+            Assertions.assertEquals(testCase.getValue(), expr.get().evaluate(new EvaluationContext(ENV)).value());
+            Assertions.assertEquals(testCase.getValue(), expr.get().compile().evaluate(new EvaluationContext(ENV)).value());
+            Assertions.assertEquals(testCase.getValue(), HiddenClassCompiler.compile(expr.get()).evaluate(new EvaluationContext(ENV)).value());
+        }
+    }
+
+    @Test
+    public void hiddenClassCompilationTest() {
+        for (var expr : applications()) {
+            Assertions.assertEquals(expr.evaluate(new EvaluationContext(ENV)), HiddenClassCompiler.compile(expr).evaluate(new EvaluationContext(ENV)));
+        }
+    }
+
+    @Test
+    public void compilationTest() {
+        for (var expr : applications()) {
+            Assertions.assertEquals(expr.evaluate(new EvaluationContext(ENV)), expr.compile().evaluate(new EvaluationContext(ENV)));
+        }
+    }
+
+    @Test
+    public void iterativeEvaluationTest() {
+        for (var expr : applications()) {
+            Assertions.assertEquals(expr.evaluate(new EvaluationContext(ENV)), IterativeEvaluator.evaluate(expr, new EvaluationContext(ENV)));
+        }
+    }
+
+    @Test
+    public void iterativeEvaluationShortCircuits() {
+        var unreachable = new VFunctionDefinition("unreachable", new VFunctionSignature(Map.of(), StandardVTypes.BOOLEAN), (ctx, sig, a) -> {
+            throw new AssertionError("operands after the decisive one should not be evaluated");
+        });
+        for (var testCase : List.of(Map.entry(LogicVFunctions.AND, false), Map.entry(LogicVFunctions.OR, true))) {
+            var expr = VExpression.functionApplication(testCase.getKey(), Map.of("operands", VExpression.list(List.of(
+                    VExpression.value(StandardVTypes.BOOLEAN, testCase.getValue()),
+                    VExpression.functionApplication(unreachable, Map.of()))))).resolveTypes(ENV, new EvaluationContext.Spec()).result();
+            Assertions.assertTrue(expr.isPresent());
+            Assertions.assertEquals(testCase.getValue(), IterativeEvaluator.evaluate(expr.get(), new EvaluationContext(ENV)).value());
+        }
+    }
+
+    private static List<VExpression> applications() {
+        var applications = new ArrayList<VExpression>();
+        for (var function : List.of(LogicVFunctions.AND, LogicVFunctions.OR)) {
+            for (var inputs : MULTI_INPUTS) {
+                applications.add(VExpression.functionApplication(function, Map.of("operands", VExpression.list(inputs.stream().map(b -> VExpression.value(StandardVTypes.BOOLEAN, b)).toList()))).resolveTypes(ENV, new EvaluationContext.Spec()).result().orElseThrow());
+            }
+        }
+
+        for (var input : INPUTS) {
+            applications.add(VExpression.functionApplication(LogicVFunctions.NOT, Map.of("operand", VExpression.value(StandardVTypes.BOOLEAN, input))).resolveTypes(ENV, new EvaluationContext.Spec()).result().orElseThrow());
+        }
+
+        return applications;
+    }
+
     private static final Set<Boolean> INPUTS = Set.of(true, false);
     private static final Set<List<Boolean>> MULTI_INPUTS = Set.of(
             List.of(true),
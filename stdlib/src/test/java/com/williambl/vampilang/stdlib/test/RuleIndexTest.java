@@ -0,0 +1,196 @@
+package com.williambl.vampilang.stdlib.test;
+
+import com.google.common.reflect.TypeToken;
+import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
+import com.williambl.vampilang.lang.type.VType;
+import com.williambl.vampilang.stdlib.LogicVFunctions;
+import com.williambl.vampilang.stdlib.RuleIndex;
+import com.williambl.vampilang.stdlib.StandardVFunctions;
+import com.williambl.vampilang.stdlib.StandardVTypes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class RuleIndexTest {
+    @Test
+    public void ruleIndexMatchesEvaluatingEveryRule() {
+        var spec = new EvaluationContext.Spec(Map.of("country", StandardVTypes.STRING, "tier", StandardVTypes.STRING, "age", StandardVTypes.NUMBER));
+        var rules = new LinkedHashMap<String, VExpression>();
+        rules.put("gb", equal("country", VExpression.value(StandardVTypes.STRING, "GB")));
+        rules.put("gb-adult", and(
+                equal("country", VExpression.value(StandardVTypes.STRING, "GB")),
+                VExpression.functionApplication(StandardVFunctions.GREATER_THAN_OR_EQUAL, Map.of("a", VExpression.variable("age"), "b", VExpression.value(StandardVTypes.NUMBER, 18.0)))));
+        rules.put("teen", and(
+                VExpression.functionApplication(StandardVFunctions.LESS_THAN, Map.of("a", VExpression.value(StandardVTypes.NUMBER, 12.0), "b", VExpression.variable("age"))),
+                VExpression.functionApplication(StandardVFunctions.LESS_THAN, Map.of("a", VExpression.variable("age"), "b", VExpression.value(StandardVTypes.NUMBER, 20.0)))));
+        rules.put("gb-not-gold", and(
+                equal("country", VExpression.value(StandardVTypes.STRING, "GB")),
+                VExpression.functionApplication(LogicVFunctions.NOT, Map.of("operand", equal("tier", VExpression.value(StandardVTypes.STRING, "gold"))))));
+        rules.put("fr-or-toddler", VExpression.functionApplication(LogicVFunctions.OR, Map.of("operands", VExpression.list(List.of(
+                equal("country", VExpression.value(StandardVTypes.STRING, "FR")),
+                VExpression.functionApplication(StandardVFunctions.LESS_THAN_OR_EQUAL, Map.of("a", VExpression.variable("age"), "b", VExpression.value(StandardVTypes.NUMBER, 3.0))))))));
+        rules.replaceAll((name, rule) -> rule.resolveTypes(ENV, spec).result().orElseThrow());
+        var index = new RuleIndex<>(rules);
+
+        for (var country : List.of("GB", "FR", "DE")) {
+            for (var tier : List.of("gold", "silver")) {
+                for (var age : List.of(2.0, 3.0, 12.0, 15.0, 18.0, 20.0, 40.0)) {
+                    var ctx = EvaluationContext.builder(spec)
+                            .addVariable("country", VValue.value(StandardVTypes.STRING, country, ENV))
+                            .addVariable("tier", VValue.value(StandardVTypes.STRING, tier, ENV))
+                            .addVariable("age", VValue.value(StandardVTypes.NUMBER, age, ENV))
+                            .build(ENV);
+                    var expected = new LinkedHashSet<String>();
+                    rules.forEach((name, rule) -> {
+                        if ((Boolean) rule.evaluate(ctx).value()) {
+                            expected.add(name);
+                        }
+                    });
+                    Assertions.assertEquals(List.copyOf(expected), List.copyOf(index.evaluate(ctx)), "%s %s %s".formatted(country, tier, age));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ruleIndexOnlyReadsVariablesEvaluationWouldRead() {
+        var spec = new EvaluationContext.Spec(Map.of("country", StandardVTypes.STRING, "age", StandardVTypes.NUMBER));
+        var rules = new LinkedHashMap<String, VExpression>();
+        rules.put("gb-adult", and(
+                equal("country", VExpression.value(StandardVTypes.STRING, "GB")),
+                VExpression.functionApplication(StandardVFunctions.GREATER_THAN_OR_EQUAL, Map.of("a", VExpression.variable("age"), "b", VExpression.value(StandardVTypes.NUMBER, 18.0)))));
+        rules.put("fr", equal("country", VExpression.value(StandardVTypes.STRING, "FR")));
+        rules.replaceAll((name, rule) -> rule.resolveTypes(ENV, spec).result().orElseThrow());
+        var index = new RuleIndex<>(rules);
+
+        var french = new EvaluationContext(Map.of("country", VValue.value(StandardVTypes.STRING, "FR", ENV)), ENV);
+        Assertions.assertEquals(evaluateEveryRule(rules, french), index.evaluate(french));
+        Assertions.assertEquals(Set.of("fr"), index.evaluate(french));
+        var british = new EvaluationContext(Map.of("country", VValue.value(StandardVTypes.STRING, "GB", ENV)), ENV);
+        Assertions.assertThrows(NoSuchElementException.class, () -> rules.get("gb-adult").evaluate(british));
+        Assertions.assertThrows(NoSuchElementException.class, () -> index.evaluate(british));
+    }
+
+    @Test
+    public void ruleIndexKeepsIntAndDoubleConstantsApart() {
+        var intType = VType.create(TypeToken.of(Integer.class));
+        var env = new VEnvironmentImpl();
+        StandardVTypes.register(env);
+        StandardVFunctions.register(env);
+        LogicVFunctions.register(env);
+        env.registerType("int", intType);
+        var spec = new EvaluationContext.Spec(Map.of("x", StandardVTypes.NUMBER));
+        var rules = new LinkedHashMap<String, VExpression>();
+        rules.put("int-one", equal("x", VExpression.value(intType, 1)));
+        rules.put("double-one", equal("x", VExpression.value(StandardVTypes.NUMBER, 1.0)));
+        rules.replaceAll((name, rule) -> rule.resolveTypes(env, spec).result().orElseThrow());
+        var index = new RuleIndex<>(rules);
+
+        var ctx = EvaluationContext.builder(spec).addVariable("x", VValue.value(StandardVTypes.NUMBER, 1.0, env)).build(env);
+        Assertions.assertEquals(evaluateEveryRule(rules, ctx), index.evaluate(ctx));
+        Assertions.assertEquals(Set.of("double-one"), index.evaluate(ctx));
+    }
+
+    @Test
+    public void ruleIndexHandlesRepeatedConjuncts() {
+        var spec = new EvaluationContext.Spec(Map.of("x", StandardVTypes.NUMBER));
+        var rules = new LinkedHashMap<String, VExpression>();
+        rules.put("repeated-equality", and(equal("x", VExpression.value(StandardVTypes.NUMBER, 1.0)), equal("x", VExpression.value(StandardVTypes.NUMBER, 1.0))));
+        rules.put("contradiction", and(equal("x", VExpression.value(StandardVTypes.NUMBER, 1.0)), equal("x", VExpression.value(StandardVTypes.NUMBER, 2.0))));
+        var positive = VExpression.functionApplication(StandardVFunctions.GREATER_THAN, Map.of("a", VExpression.variable("x"), "b", VExpression.value(StandardVTypes.NUMBER, 0.0)));
+        rules.put("repeated-bound", and(positive, positive));
+        rules.replaceAll((name, rule) -> rule.resolveTypes(ENV, spec).result().orElseThrow());
+        var index = new RuleIndex<>(rules);
+
+        for (var x : List.of(0.0, 1.0, 2.0)) {
+            var ctx = EvaluationContext.builder(spec).addVariable("x", VValue.value(StandardVTypes.NUMBER, x, ENV)).build(ENV);
+            Assertions.assertEquals(List.copyOf(evaluateEveryRule(rules, ctx)), List.copyOf(index.evaluate(ctx)), "x = " + x);
+        }
+    }
+
+    @Test
+    public void ruleIndexNeverLooksAtRulesAContextDoesNotTouch() {
+        var spec = new EvaluationContext.Spec(Map.of("x", StandardVTypes.NUMBER));
+        var checked = new ArrayList<Object>();
+        var check = new VFunctionDefinition("check", new VFunctionSignature(Map.of("a", StandardVTypes.NUMBER), StandardVTypes.BOOLEAN), (ctx, sig, a) -> {
+            checked.add(a.get("a").value());
+            return VValue.value(StandardVTypes.BOOLEAN, true, ctx.env());
+        });
+        var rules = new LinkedHashMap<LookCountingKey, VExpression>();
+        var unindexed = new LookCountingKey(-1);
+        rules.put(unindexed, VExpression.functionApplication(check, Map.of("a", VExpression.value(StandardVTypes.NUMBER, -1.0))));
+        for (int i = 0; i < 1000; i++) {
+            rules.put(new LookCountingKey(i), and(
+                    equal("x", VExpression.value(StandardVTypes.NUMBER, (double) i)),
+                    VExpression.functionApplication(check, Map.of("a", VExpression.variable("x")))));
+        }
+
+        rules.replaceAll((name, rule) -> rule.resolveTypes(ENV, spec).result().orElseThrow());
+        var index = new RuleIndex<>(rules);
+        rules.keySet().forEach(LookCountingKey::reset);
+
+        var ctx = EvaluationContext.builder(spec).addVariable("x", VValue.value(StandardVTypes.NUMBER, 3.0, ENV)).build(ENV);
+        Assertions.assertEquals(List.of(unindexed, new LookCountingKey(3)), List.copyOf(index.evaluate(ctx)));
+        Assertions.assertEquals(List.of(-1.0, 3.0), checked);
+        for (var key : rules.keySet()) {
+            if (key.id != -1 && key.id != 3) {
+                Assertions.assertEquals(0, key.looks, "rule " + key.id);
+            }
+        }
+    }
+
+    // a rule key that counts how many times it is hashed or compared
+    private static final class LookCountingKey {
+        private final int id;
+        private int looks;
+
+        private LookCountingKey(int id) {
+            this.id = id;
+        }
+
+        private void reset() {
+            this.looks = 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            this.looks++;
+            return o instanceof LookCountingKey other && other.id == this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            this.looks++;
+            return this.id;
+        }
+    }
+
+    private static Set<String> evaluateEveryRule(Map<String, VExpression> rules, EvaluationContext ctx) {
+        var matched = new LinkedHashSet<String>();
+        rules.forEach((name, rule) -> {
+            if ((Boolean) rule.evaluate(ctx).value()) {
+                matched.add(name);
+            }
+        });
+
+        return matched;
+    }
+
+    private static VExpression equal(String variable, VExpression constant) {
+        return VExpression.functionApplication(StandardVFunctions.EQUALS, Map.of("a", VExpression.variable(variable), "b", constant));
+    }
+
+    private static VExpression and(VExpression... operands) {
+        return VExpression.functionApplication(LogicVFunctions.AND, Map.of("operands", VExpression.list(List.of(operands))));
+    }
+
+    private static final VEnvironment ENV = new VEnvironmentImpl();
+    static {
+        StandardVTypes.register(ENV);
+        StandardVFunctions.register(ENV);
+        LogicVFunctions.register(ENV);
+    }
+}
@@ -2,7 +2,13 @@ package com.williambl.vampilang.stdlib.test;
 
 import com.google.common.collect.Sets;
 import com.williambl.vampilang.lang.*;
+import com.williambl.vampilang.lang.batch.BatchContext;
+import com.williambl.vampilang.lang.batch.BatchEvaluator;
+import com.williambl.vampilang.lang.compile.MemoisedExpression;
 import com.williambl.vampilang.lang.function.VFunctionDefinition;
+import com.williambl.vampilang.lang.function.VFunctionSignature;
+import com.williambl.vampilang.lang.optimise.PartialEvaluation;
+import com.williambl.vampilang.lang.optimise.SubexpressionSharing;
 import com.williambl.vampilang.stdlib.ArithmeticVFunctions;
 import com.williambl.vampilang.stdlib.LogicVFunctions;
 import com.williambl.vampilang.stdlib.StandardVFunctions;
@@ -33,6 +39,21 @@ public class StandardVFunctionsTest {
         }
     }
 
+    @Test
+    public void compiledIfElseTest() {
+        var spec = new EvaluationContext.Spec(Map.of("predicate", StandardVTypes.BOOLEAN));
+        var expr = VExpression.functionApplication(StandardVFunctions.IF_ELSE, Map.of(
+                "predicate", VExpression.variable("predicate"),
+                "a", VExpression.value(StandardVTypes.STRING, "a"),
+                "b", VExpression.value(StandardVTypes.STRING, "b"))).resolveTypes(ENV, spec).result();
+        Assertions.assertTrue(expr.isPresent());
+        var compiled = expr.get().compile();
+        for (var value : List.of(true, false)) {
+            var ctx = EvaluationContext.builder(spec).addVariable("predicate", VValue.value(StandardVTypes.BOOLEAN, value, ENV)).build(ENV);
+            Assertions.assertEquals(expr.get().evaluate(ctx), compiled.evaluate(ctx));
+        }
+    }
+
     @Test
     public void matchTest() {
         var values = List.of(1., 2., 3., 4.);
@@ -113,6 +134,51 @@ public class StandardVFunctionsTest {
         }
     }
 
+    @Test
+    public void mapOptionalWithImpureLambdaIsNotShared() {
+        var random = new Random(0);
+        var randomFunction = new VFunctionDefinition("random", new VFunctionSignature(Map.of(), StandardVTypes.NUMBER), (ctx, sig, a) -> VValue.value(sig.outputType(), random.nextDouble(), ctx.env()));
+        var spec = new EvaluationContext.Spec(Map.of("input", StandardVTypes.OPTIONAL.with(0, StandardVTypes.NUMBER)));
+        Supplier<VExpression> mapToRandom = () -> VExpression.functionApplication(StandardVFunctions.MAP_OPTIONAL, Map.of(
+                "optional", VExpression.variable("input"),
+                "mapping", VExpression.lambda(
+                        StandardVTypes.OPTIONAL_MAPPING.with(List.of(StandardVTypes.NUMBER, StandardVTypes.NUMBER)),
+                        VExpression.functionApplication(randomFunction, Map.of()))));
+        var expr = VExpression.functionApplication(StandardVFunctions.EQUALS, Map.of("a", mapToRandom.get(), "b", mapToRandom.get())).resolveTypes(ENV, spec).result();
+        Assertions.assertTrue(expr.isPresent());
+        Assertions.assertFalse(SubexpressionSharing.isPure(((VExpression.FunctionApplication) expr.get()).inputs().get("a")));
+        var shared = (VExpression.FunctionApplication) SubexpressionSharing.share(expr.get());
+        Assertions.assertNotSame(shared.inputs().get("a"), shared.inputs().get("b"));
+        Assertions.assertTrue(SubexpressionSharing.sharedNodes(shared).isEmpty());
+    }
+
+    @Test
+    public void memoisedMapOptionalIsServedFromCache() {
+        var optionalNumberType = StandardVTypes.OPTIONAL.with(0, StandardVTypes.NUMBER);
+        var spec = new EvaluationContext.Spec(Map.of("input", optionalNumberType, "threshold", StandardVTypes.NUMBER));
+        var expr = VExpression.functionApplication(StandardVFunctions.MAP_OPTIONAL, Map.of(
+                "optional", VExpression.variable("input"),
+                "mapping", VExpression.lambda(
+                        StandardVTypes.OPTIONAL_MAPPING.with(List.of(StandardVTypes.BOOLEAN, StandardVTypes.NUMBER)),
+                        VExpression.functionApplication(StandardVFunctions.GREATER_THAN, Map.of(
+                                "a", VExpression.variable("unwrapped_optional"),
+                                "b", VExpression.variable("threshold"))))))
+                .resolveTypes(ENV, spec).result();
+        Assertions.assertTrue(expr.isPresent());
+        var memoised = MemoisedExpression.of(expr.get(), 16);
+        Assertions.assertTrue(memoised.isMemoised());
+
+        var ctx = EvaluationContext.builder(spec)
+                .addVariable("input", VValue.value(optionalNumberType, Optional.of(3.0), ENV))
+                .addVariable("threshold", VValue.value(StandardVTypes.NUMBER, 1.0, ENV))
+                .build(ENV);
+        Assertions.assertEquals(Optional.of(true), memoised.evaluate(ctx).value());
+        Assertions.assertEquals(Optional.of(true), memoised.evaluate(ctx).value());
+        Assertions.assertEquals(new MemoisedExpression.CacheStatistics(1, 1, 0), memoised.statistics());
+        Assertions.assertEquals(Optional.of(false), memoised.evaluate(ctx.with("threshold", VValue.value(StandardVTypes.NUMBER, 5.0, ENV))).value());
+        Assertions.assertEquals(new MemoisedExpression.CacheStatistics(1, 2, 0), memoised.statistics());
+    }
+
     @Test
     public void unwrapOptionalTest() {
         var optionalNumberType = StandardVTypes.OPTIONAL.with(0, StandardVTypes.NUMBER);
@@ -138,6 +204,51 @@ public class StandardVFunctionsTest {
 
     //TODO comparison tests
 
+    @Test
+    public void numberComparisonBatchTest() {
+        var spec = new EvaluationContext.Spec(Map.of("a", StandardVTypes.NUMBER, "b", StandardVTypes.NUMBER));
+        var a = new double[]{1., 2., 3., -4., 5., 6., 0., -0., 9., Double.NaN, 11., 12., 13., 14., 15., 16., 17.};
+        var b = new double[]{2., 2., 1., -5., 5., 7., -0., 0., 8., 10., Double.NaN, 12., 0., 15., 14., 16., 20.};
+        var batch = BatchContext.builder(spec, a.length)
+                .addDoubles("a", StandardVTypes.NUMBER, a)
+                .addDoubles("b", StandardVTypes.NUMBER, b)
+                .build(ENV);
+        for (var function : List.of(StandardVFunctions.LESS_THAN, StandardVFunctions.GREATER_THAN, StandardVFunctions.LESS_THAN_OR_EQUAL, StandardVFunctions.GREATER_THAN_OR_EQUAL)) {
+            var expr = VExpression.functionApplication(function, Map.of("a", VExpression.variable("a"), "b", VExpression.variable("b"))).resolveTypes(ENV, spec).result();
+            Assertions.assertTrue(expr.isPresent());
+            var result = BatchEvaluator.evaluateBatch(expr.get(), batch);
+            for (int i = 0; i < a.length; i++) {
+                Assertions.assertEquals(expr.get().evaluate(batch.row(i)), result.get(i, ENV));
+            }
+        }
+    }
+
+    @Test
+    public void partialEvaluationTest() {
+        var spec = new EvaluationContext.Spec(Map.of("region", StandardVTypes.STRING, "score", StandardVTypes.NUMBER));
+        var expr = VExpression.functionApplication(StandardVFunctions.IF_ELSE, Map.of(
+                "predicate", VExpression.functionApplication(LogicVFunctions.AND, Map.of("operands", VExpression.list(List.of(
+                        VExpression.functionApplication(StandardVFunctions.EQUALS, Map.of("a", VExpression.variable("region"), "b", VExpression.value(StandardVTypes.STRING, "eu"))),
+                        VExpression.functionApplication(StandardVFunctions.GREATER_THAN, Map.of("a", VExpression.variable("score"), "b", VExpression.value(StandardVTypes.NUMBER, 10.))))))),
+                "a", VExpression.value(StandardVTypes.STRING, "high"),
+                "b", VExpression.value(StandardVTypes.STRING, "low"))).resolveTypes(ENV, spec).result();
+        Assertions.assertTrue(expr.isPresent());
+
+        var us = PartialEvaluation.specialise(expr.get(), Map.of("region", VValue.value(StandardVTypes.STRING, "us", ENV)), ENV);
+        Assertions.assertEquals(VExpression.value(StandardVTypes.STRING, "low"), us);
+
+        var eu = PartialEvaluation.specialise(expr.get(), Map.of("region", VValue.value(StandardVTypes.STRING, "eu", ENV)), ENV);
+        var predicate = (VExpression.FunctionApplication) ((VExpression.FunctionApplication) eu).inputs().get("predicate");
+        Assertions.assertEquals(1, ((VExpression.ListConstruction) predicate.inputs().get("operands")).entries().size());
+        for (var score : List.of(5., 20.)) {
+            var ctx = EvaluationContext.builder(spec)
+                    .addVariable("region", VValue.value(StandardVTypes.STRING, "eu", ENV))
+                    .addVariable("score", VValue.value(StandardVTypes.NUMBER, score, ENV))
+                    .build(ENV);
+            Assertions.assertEquals(expr.get().evaluate(ctx), eu.evaluate(ctx));
+        }
+    }
+
     private static final VEnvironment ENV = new VEnvironmentImpl();
     static {
         StandardVTypes.register(ENV);